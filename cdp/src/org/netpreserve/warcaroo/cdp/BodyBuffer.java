@@ -0,0 +1,206 @@
+package org.netpreserve.warcaroo.cdp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Buffers a response body in memory, spilling it to a temporary file once it grows larger than a limit.
+ * <p>
+ * Most responses are small so this saves creating and deleting a file for each of them. The memory is held in fixed
+ * size chunks which are returned to a shared pool on close. The temporary file is deleted on close.
+ */
+public class BodyBuffer implements SeekableByteChannel {
+    static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_CHUNKS = 1024;
+    private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final long memoryLimit;
+    private final Path directory;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private FileChannel file;
+    private long size;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * @param memoryLimit maximum number of bytes to hold in memory before spilling to a file
+     * @param directory   directory to create the temporary file in
+     */
+    public BodyBuffer(long memoryLimit, Path directory) {
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns true if the contents haven't been spilled to a file.
+     */
+    public boolean inMemory() {
+        return file == null;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (file == null && position + src.remaining() > memoryLimit) spill();
+        if (file != null) return file.write(src);
+
+        int count = src.remaining();
+        while (src.hasRemaining()) {
+            int index = (int) (position / CHUNK_SIZE);
+            int offset = (int) (position % CHUNK_SIZE);
+            while (chunks.size() <= index) chunks.add(takeChunk());
+            int length = Math.min(src.remaining(), CHUNK_SIZE - offset);
+            src.get(chunks.get(index), offset, length);
+            position += length;
+        }
+        size = Math.max(size, position);
+        return count;
+    }
+
+    private void spill() throws IOException {
+        file = FileChannel.open(directory.resolve(UUID.randomUUID().toString()), CREATE_NEW, WRITE, READ,
+                DELETE_ON_CLOSE);
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                int length = (int) Math.min(CHUNK_SIZE, size - (long) i * CHUNK_SIZE);
+                var buffer = ByteBuffer.wrap(chunks.get(i), 0, length);
+                while (buffer.hasRemaining()) file.write(buffer);
+            }
+            file.position(position);
+        } catch (IOException e) {
+            file.close();
+            file = null;
+            throw e;
+        }
+        releaseChunks();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (file != null) return file.read(dst);
+        if (position >= size) return -1;
+
+        int count = 0;
+        while (dst.hasRemaining() && position < size) {
+            int index = (int) (position / CHUNK_SIZE);
+            int offset = (int) (position % CHUNK_SIZE);
+            int length = (int) Math.min(Math.min(dst.remaining(), CHUNK_SIZE - offset), size - position);
+            dst.put(chunks.get(index), offset, length);
+            position += length;
+            count += length;
+        }
+        return count;
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return file != null ? file.position() : position;
+    }
+
+    @Override
+    public BodyBuffer position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        if (file != null) {
+            file.position(newPosition);
+        } else {
+            position = newPosition;
+        }
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return file != null ? file.size() : size;
+    }
+
+    @Override
+    public BodyBuffer truncate(long newSize) throws IOException {
+        ensureOpen();
+        if (newSize < 0) throw new IllegalArgumentException("negative size");
+        if (file != null) {
+            file.truncate(newSize);
+        } else {
+            size = Math.min(size, newSize);
+            position = Math.min(position, newSize);
+        }
+        return this;
+    }
+
+    /**
+     * Transfers bytes to the target channel without changing the position. Uses {@link FileChannel#transferTo} once
+     * spilled so the kernel can copy the data directly.
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ensureOpen();
+        if (file != null) return file.transferTo(position, count, target);
+        long end = Math.min(size, position + count);
+        long transferred = 0;
+        while (position + transferred < end) {
+            long offset = position + transferred;
+            int index = (int) (offset / CHUNK_SIZE);
+            int chunkOffset = (int) (offset % CHUNK_SIZE);
+            int length = (int) Math.min(CHUNK_SIZE - chunkOffset, end - offset);
+            int n = target.write(ByteBuffer.wrap(chunks.get(index), chunkOffset, length));
+            if (n <= 0) break;
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        releaseChunks();
+        if (file != null) file.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    /**
+     * Takes a CHUNK_SIZE array from the pool. Also used as scratch space by {@link ResourceRecorder}.
+     */
+    static byte[] takeChunk() {
+        byte[] chunk = pool.poll();
+        if (chunk == null) return new byte[CHUNK_SIZE];
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    static void releaseChunk(byte[] chunk) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            pool.offer(chunk);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    private void releaseChunks() {
+        for (byte[] chunk : chunks) releaseChunk(chunk);
+        chunks.clear();
+    }
+}
@@ -269,7 +269,8 @@ public class BrowserProcess implements AutoCloseable {
     }
 
     /**
-     * Opens a new browser window.
+     * Opens a new browser window. The resource handler is called with each captured subresource and is responsible
+     * for closing it.
      */
     public Navigator newWindow(Consumer<ResourceFetched> resourceHandler,
                                RequestHandler requestHandler) {
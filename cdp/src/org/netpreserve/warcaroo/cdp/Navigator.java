@@ -145,14 +145,16 @@ public class Navigator implements AutoCloseable {
             if (!navigation.mainResource().complete(resource)) {
                 resource.close();
             }
-        } else {
+        } else if (subresourceHandler != null) {
+            // the handler takes ownership of the resource and is responsible for closing it
             try {
-                if (subresourceHandler != null) {
-                    subresourceHandler.accept(resource);
-                }
-            } finally {
+                subresourceHandler.accept(resource);
+            } catch (Throwable e) {
                 resource.close();
+                throw e;
             }
+        } else {
+            resource.close();
         }
     }
 
@@ -160,6 +162,7 @@ public class Navigator implements AutoCloseable {
         try (var browserProcess = BrowserProcess.start(null, Path.of("data", "profile"));
              var visitor = browserProcess.newWindow(resourceFetched -> {
                  System.out.println("Resource: " + resourceFetched);
+                 resourceFetched.close();
              }, null)) {
             //browser.webDriver.manage().timeouts().implicitlyWait(Duration.ofSeconds(5));
             visitor.navigateTo(new Url(args[0]));
@@ -33,6 +33,9 @@ public class NetworkManager {
     private final CDPSession cdpSession;
     private Predicate<Url> blocker = url -> false;
     private volatile boolean captureResponseBodies = true;
+    private volatile List<String> digestAlgorithms = ResourceRecorder.DEFAULT_DIGEST_ALGORITHMS;
+    private volatile long memoryBufferLimit = ResourceRecorder.DEFAULT_MEMORY_BUFFER_LIMIT;
+    private volatile Path tempPath;
     private volatile ResourceRecorder possibleDownloadRecorder = null;
     private Url preventNavigationUrl;
 
@@ -47,6 +50,7 @@ public class NetworkManager {
         this.idleMonitor = idleMonitor;
         this.resourceHandler = resourceHandler;
         this.downloadPath = downloadPath;
+        this.tempPath = downloadPath;
         init();
     }
 
@@ -223,7 +227,8 @@ public class NetworkManager {
 
     private ResourceRecorder getOrCreateRecorder(Network.RequestId requestId) {
         return recorders.computeIfAbsent(requestId, id -> {
-            var recorder = new ResourceRecorder(id, downloadPath, resourceHandler, network, captureResponseBodies);
+            var recorder = new ResourceRecorder(id, downloadPath, resourceHandler, network, captureResponseBodies,
+                    digestAlgorithms, memoryBufferLimit, tempPath);
             recorder.completionFuture.whenComplete((v, t) -> {
                 recorders.remove(requestId);
                 idleMonitor.finished();
@@ -254,6 +259,27 @@ public class NetworkManager {
         this.captureResponseBodies = captureResponseBodies;
     }
 
+    /**
+     * Sets the MessageDigest algorithms computed over response bodies while they're recorded. Defaults to SHA-1.
+     */
+    public void digestAlgorithms(List<String> digestAlgorithms) {
+        this.digestAlgorithms = List.copyOf(digestAlgorithms);
+    }
+
+    /**
+     * Sets how response bodies are buffered while they're recorded. Bodies up to memoryLimit bytes are held in memory
+     * and larger ones are written to a temporary file in tempPath. Defaults to 256 KiB and the download directory.
+     */
+    public void bufferResponseBodies(long memoryLimit, Path tempPath) {
+        try {
+            Files.createDirectories(tempPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create directory: " + tempPath, e);
+        }
+        this.memoryBufferLimit = memoryLimit;
+        this.tempPath = tempPath;
+    }
+
     /**
      * Aborts requests for top-level navigation to a given URL.
      */
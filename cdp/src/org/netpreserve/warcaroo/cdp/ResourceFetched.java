@@ -7,9 +7,17 @@ import org.netpreserve.warcaroo.util.Url;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Map;
 import java.util.Objects;
 
+/**
+ * A captured request and response.
+ *
+ * @param responseBodyLength  length of the response body, or -1 if responseBodyDigests is null
+ * @param responseBodyDigests digests of the response body keyed by MessageDigest algorithm name, computed as it was
+ *                            recorded. Null if the body wasn't digested, in which case it must be read to digest it.
+ */
 public record ResourceFetched(
         String method,
         Url url,
@@ -17,7 +25,7 @@ public record ResourceFetched(
         byte[] requestBody,
         byte[] responseHeader,
         byte[] responseBody,
-        FileChannel responseBodyChannel,
+        SeekableByteChannel responseBodyChannel,
         String ipAddress,
         long fetchTimeMs,
         int status,
@@ -28,7 +36,9 @@ public record ResourceFetched(
         long transferred,
         FrameId frameId,
         Network.LoaderId loaderId,
-        Network.RequestId requestId, java.time.Instant responseTime) implements Closeable {
+        Network.RequestId requestId, java.time.Instant responseTime,
+        long responseBodyLength,
+        Map<String, byte[]> responseBodyDigests) implements Closeable {
     public ResourceFetched {
         Objects.requireNonNull(url);
     }
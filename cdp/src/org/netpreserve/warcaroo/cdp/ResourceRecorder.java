@@ -5,6 +5,7 @@ import org.netpreserve.warcaroo.cdp.domains.Browser;
 import org.netpreserve.warcaroo.cdp.domains.Fetch;
 import org.netpreserve.warcaroo.cdp.domains.Network;
 import org.netpreserve.warcaroo.cdp.domains.Page;
+import org.netpreserve.warcaroo.util.Base64Chars;
 import org.netpreserve.warcaroo.util.BareMediaType;
 import org.netpreserve.warcaroo.util.Url;
 import org.slf4j.Logger;
@@ -12,20 +13,24 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.spi.LoggingEventBuilder;
 
 import java.io.IOException;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
-import static java.nio.file.StandardOpenOption.*;
 
 /**
- * Records the data of an individual request to a temporary file.
+ * Records the data of an individual request. Small response bodies are held in memory and larger ones in a temporary
+ * file.
  * <p>
  * Normal order of events:
  * <ol>
@@ -50,12 +55,17 @@ import static java.nio.file.StandardOpenOption.*;
  */
 public class ResourceRecorder {
     private final static Logger log = LoggerFactory.getLogger(ResourceRecorder.class);
+    public static final List<String> DEFAULT_DIGEST_ALGORITHMS = List.of("SHA-1");
+    public static final long DEFAULT_MEMORY_BUFFER_LIMIT = 256 * 1024;
     private final boolean captureResponseBody;
+    private final List<String> digestAlgorithms;
     private final Path downloadPath;
+    private final long memoryBufferLimit;
+    private final Path tempPath;
     private final Consumer<ResourceFetched> resourceHandler;
     private final Network.RequestId networkId;
     private final Network network;
-    private FileChannel channel;
+    private SeekableByteChannel channel;
     private Network.Response response;
     Network.Request request;
     private Map<String, String> fullRequestHeaders;
@@ -63,13 +73,30 @@ public class ResourceRecorder {
     Network.ResourceType resourceType;
     private long bytesWritten = 0;
     private long bytesReceived = 0;
+    private MessageDigest[] digests;
+    private long bodyLength = 0;
     CompletableFuture<Void> completionFuture = new CompletableFuture<>();
     Page.FrameId frameId;
     private Network.LoaderId loaderId;
     private long startNanos = System.nanoTime();
 
     public ResourceRecorder(Network.RequestId networkId, Path downloadPath, Consumer<ResourceFetched> resourceHandler, Network network, boolean captureResponseBody) {
+        this(networkId, downloadPath, resourceHandler, network, captureResponseBody, DEFAULT_DIGEST_ALGORITHMS,
+                DEFAULT_MEMORY_BUFFER_LIMIT, downloadPath);
+    }
+
+    /**
+     * @param digestAlgorithms  MessageDigest algorithms to compute over the response body as it's written
+     * @param memoryBufferLimit response bodies larger than this are spilled to a temporary file
+     * @param tempPath          directory for the temporary files
+     */
+    public ResourceRecorder(Network.RequestId networkId, Path downloadPath, Consumer<ResourceFetched> resourceHandler,
+                            Network network, boolean captureResponseBody, List<String> digestAlgorithms,
+                            long memoryBufferLimit, Path tempPath) {
         this.captureResponseBody = captureResponseBody;
+        this.digestAlgorithms = digestAlgorithms;
+        this.memoryBufferLimit = memoryBufferLimit;
+        this.tempPath = tempPath;
         this.networkId = networkId;
         this.downloadPath = downloadPath;
         this.resourceHandler = resourceHandler;
@@ -80,7 +107,7 @@ public class ResourceRecorder {
      * Constructs a HTTP/1.1 header from a CDP Network.Request.
      */
     static byte[] formatRequestHeader(Network.Request request, Map<String, String> extraInfoHeaders) {
-        var builder = new StringBuilder();
+        var builder = new StringBuilder(512);
         Url url = request.url();
 
         builder.append(request.method()).append(" ").append(url.pathAndQuery()).append(" HTTP/1.1\r\n");
@@ -89,16 +116,10 @@ public class ResourceRecorder {
             extraInfoHeaders.forEach((name, value) -> {
                 if (name.equals(":authority")) name = "host";
                 if (name.startsWith(":")) return;
-                for (var line : value.split("\n")) {
-                    builder.append(name).append(": ").append(line).append("\r\n");
-                }
+                appendHeader(builder, name, value);
             });
         } else {
-            request.headers().forEach((name, value) -> {
-                for (var line : value.split("\n")) {
-                    builder.append(name).append(": ").append(line).append("\r\n");
-                }
-            });
+            request.headers().forEach((name, value) -> appendHeader(builder, name, value));
             if (!request.headers().containsKey("Host")) {
                 builder.append("Host: ").append(url.hostAndPort()).append("\r\n");
             }
@@ -108,6 +129,24 @@ public class ResourceRecorder {
         return builder.toString().getBytes(US_ASCII);
     }
 
+    /**
+     * Appends a header, splitting values that CDP has joined with newlines into separate header lines. Behaves like
+     * value.split("\n") without allocating the pieces.
+     */
+    private static void appendHeader(StringBuilder builder, String name, String value) {
+        int length = value.length();
+        while (length > 0 && value.charAt(length - 1) == '\n') length--;
+        if (length == 0 && !value.isEmpty()) return;
+        int start = 0;
+        while (true) {
+            int end = value.indexOf('\n', start);
+            if (end < 0 || end > length) end = length;
+            builder.append(name).append(": ").append(value, start, end).append("\r\n");
+            if (end == length) return;
+            start = end + 1;
+        }
+    }
+
     public void handleBufferedData(byte[] data) {
         wrap(log.atDebug()).addKeyValue("dataLength", data.length)
                 .log("Received buffered data.");
@@ -159,29 +198,74 @@ public class ResourceRecorder {
         this.resourceType = event.type();
     }
 
+    /**
+     * Decodes the base64 data a piece at a time through pooled scratch arrays and writes each piece, rather than
+     * allocating the whole decoded chunk and the intermediate copy java.util.Base64 makes of a String.
+     */
     public void handleDataReceived(Network.DataReceived event) {
-        byte[] data = event.decodeData();
-        if (data != null && data.length > 0) {
-            wrap(log.atDebug()).addKeyValue("dataLength", data.length).log("Received data");
-            write(data);
+        String data = event.data();
+        if (data != null && !data.isEmpty()) {
+            wrap(log.atDebug()).addKeyValue("dataLength", event.dataLength()).log("Received data");
+            byte[] input = BodyBuffer.takeChunk();
+            byte[] output = BodyBuffer.takeChunk();
+            try {
+                Base64Chars.decode(data, input, output, (decoded, length) -> write(decoded, 0, length));
+            } finally {
+                BodyBuffer.releaseChunk(input);
+                BodyBuffer.releaseChunk(output);
+            }
         }
         bytesReceived += event.dataLength();
     }
 
     private void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    private void write(byte[] data, int offset, int length) {
         try {
             if (channel == null) {
-                this.channel = FileChannel.open(downloadPath.resolve(UUID.randomUUID().toString()),
-                        CREATE_NEW, WRITE, READ, DELETE_ON_CLOSE);
+                this.channel = new BodyBuffer(memoryBufferLimit, tempPath);
+                this.digests = newDigests();
+                this.bodyLength = 0;
             }
-            Channels.newOutputStream(channel).write(data);
-            bytesWritten += data.length;
+            var buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            // digest the data now while we have it rather than reading it back later
+            for (var digest : digests) digest.update(data, offset, length);
+            bodyLength += length;
+            bytesWritten += length;
         } catch (IOException e) {
             log.error("Failed to write request data", e);
             closeChannel();
         }
     }
 
+    private MessageDigest[] newDigests() {
+        var digests = new MessageDigest[digestAlgorithms.size()];
+        for (int i = 0; i < digests.length; i++) {
+            try {
+                digests[i] = MessageDigest.getInstance(digestAlgorithms.get(i));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Returns the digests of the body written so far, or null if it wasn't written by us.
+     */
+    private Map<String, byte[]> finishDigests() {
+        if (digests == null) return null;
+        var map = new HashMap<String, byte[]>();
+        for (int i = 0; i < digests.length; i++) {
+            map.put(digestAlgorithms.get(i), digests[i].digest());
+        }
+        digests = null;
+        return map;
+    }
+
     public void handleLoadingFinished(Network.LoadingFinished event) {
         wrap(log.atDebug()).log("Loading finished");
 
@@ -247,11 +331,13 @@ public class ResourceRecorder {
         var responseType = BareMediaType.of(response.headers().get("Content-Type"));
         rewindChannel();
         Instant instant = response.responseTime() == null ? Instant.now() : response.responseTime().toInstant();
+        var bodyDigests = channel == null ? null : finishDigests();
         resourceHandler.accept(new ResourceFetched(request.method(), response.url(), requestHeader, request.body(), responseHeader,
                 null, channel, response.remoteIPAddress(), fetchTimeMs, response.status(),
                 redirect, responseType, resourceType, response.protocol(), encodedDataLength, frameId,
-                loaderId, networkId, instant));
+                loaderId, networkId, instant, bodyDigests == null ? -1 : bodyLength, bodyDigests));
         channel = null;
+        digests = null;
     }
 
     public void handleLoadingFailed(Network.LoadingFailed event) {
@@ -279,6 +365,7 @@ public class ResourceRecorder {
     }
 
     private void closeChannel() {
+        digests = null;
         if (channel == null) return;
         try {
             channel.close();
@@ -294,18 +381,47 @@ public class ResourceRecorder {
      */
     static byte[] formatResponseHeader(Network.Response response, String rawResponseHeader, Long replaceContentLength) {
         if (rawResponseHeader != null) {
-            rawResponseHeader = rawResponseHeader.replaceAll("(?mi)^(Content|Transfer)-Encoding:.*?\\r?\\n", "");
-            if (replaceContentLength != null) {
-                rawResponseHeader = rawResponseHeader.replaceAll("(?mi)^(Content-Length:).*?(\\r?\\n)", "$1 " + replaceContentLength + "$2");
-            }
-            return rawResponseHeader.getBytes(US_ASCII);
+            return rewriteRawHeader(rawResponseHeader, replaceContentLength).getBytes(US_ASCII);
         }
         return formatResponseHeader(response.status(), response.statusText(), response.headers(), replaceContentLength);
     }
 
+    /**
+     * Removes Content-Encoding and Transfer-Encoding lines from a raw header and, if replaceContentLength is given,
+     * replaces the Content-Length value. Scans line by line and returns the original string if nothing changed.
+     */
+    static String rewriteRawHeader(String header, Long replaceContentLength) {
+        StringBuilder builder = null;
+        int copied = 0;
+        int start = 0;
+        while (start < header.length()) {
+            int newline = header.indexOf('\n', start);
+            if (newline < 0) break;
+            if (startsWithIgnoreCase(header, start, "Content-Encoding:") ||
+                startsWithIgnoreCase(header, start, "Transfer-Encoding:")) {
+                if (builder == null) builder = new StringBuilder(header.length());
+                builder.append(header, copied, start);
+                copied = newline + 1;
+            } else if (replaceContentLength != null && startsWithIgnoreCase(header, start, "Content-Length:")) {
+                if (builder == null) builder = new StringBuilder(header.length() + 20);
+                int valueStart = start + "Content-Length:".length();
+                int lineEnd = newline > valueStart && header.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+                builder.append(header, copied, valueStart).append(' ').append(replaceContentLength.longValue());
+                copied = lineEnd;
+            }
+            start = newline + 1;
+        }
+        if (builder == null) return header;
+        return builder.append(header, copied, header.length()).toString();
+    }
+
+    private static boolean startsWithIgnoreCase(String string, int offset, String prefix) {
+        return string.regionMatches(true, offset, prefix, 0, prefix.length());
+    }
+
     static byte @NotNull [] formatResponseHeader(int status, String reason, Network.Headers headers, Long replaceContentLength) {
         if (reason == null) reason = "";
-        var builder = new StringBuilder();
+        var builder = new StringBuilder(512);
         builder.append("HTTP/1.1 ").append(status).append(" ").append(reason).append("\r\n");
         headers.forEach((name, value) -> {
             if (name.equalsIgnoreCase("content-encoding")) return;
@@ -313,9 +429,7 @@ public class ResourceRecorder {
             if (replaceContentLength != null && name.equalsIgnoreCase("content-length")) {
                 value = Long.toString(replaceContentLength);
             }
-            for (var line : value.split("\n")) {
-                builder.append(name).append(": ").append(line).append("\r\n");
-            }
+            appendHeader(builder, name, value);
         });
         builder.append("\r\n");
         return builder.toString().getBytes(US_ASCII);
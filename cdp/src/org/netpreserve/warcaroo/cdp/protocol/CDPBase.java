@@ -11,11 +11,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
-import java.lang.reflect.Type;
-import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
@@ -33,7 +29,8 @@ public abstract class CDPBase {
                             .withObjectEntrySpacing(Spacing.AFTER)
                             .withObjectFieldValueSpacing(Spacing.AFTER)));
     private final Map<Long, CompletableFuture<JsonNode>> commands = new ConcurrentHashMap<>();
-    private final Map<String, Consumer<JsonNode>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, Consumer<Object>> listeners = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Object> domains = new ConcurrentHashMap<>();
     private final ExecutorService executor;
     private Thread executorThread;
 
@@ -47,27 +44,30 @@ public abstract class CDPBase {
         });
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
+    @SuppressWarnings("unchecked")
     public <T> T domain(Class<T> domainInterface) {
-        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{domainInterface},
+        return (T) domains.computeIfAbsent(domainInterface, this::newDomainProxy);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object newDomainProxy(Class<?> domainInterface) {
+        var methods = DomainMethod.of(domainInterface);
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{domainInterface},
                 (proxy, method, args) -> {
-                    var methodParameters = method.getParameters();
-                    if (method.getName().equals("toString")) {
-                        return domainInterface.getSimpleName() + "@" + System.identityHashCode(proxy);
+                    var domainMethod = methods.get(method);
+                    if (domainMethod == null) {
+                        return switch (method.getName()) {
+                            case "equals" -> proxy == args[0];
+                            case "hashCode" -> System.identityHashCode(proxy);
+                            case "toString" -> domainInterface.getSimpleName() + "@" + System.identityHashCode(proxy);
+                            default -> throw new UnsupportedOperationException(method.toString());
+                        };
                     }
-                    if (method.getName().startsWith("on") && methodParameters.length == 1) {
-                        var type = ((ParameterizedType)method.getGenericParameterTypes()[0]);
-                        var eventClass = (Class<?>)type.getActualTypeArguments()[0];
-                        addListener(eventClass, (Consumer)args[0]);
+                    if (domainMethod.isListener()) {
+                        addListener(domainMethod.eventClass, (Consumer) args[0]);
                         return null;
                     }
-                    var params = new HashMap<String, Object>(methodParameters.length);
-                    for (int i = 0; i < methodParameters.length; i++) {
-                        if (args[i] != null) params.put(methodParameters[i].getName(), args[i]);
-                    }
-                    Unwrap unwrap = method.getAnnotation(Unwrap.class);
-                    return sendCommand(domainInterface.getSimpleName() + "." + method.getName(), params,
-                            method.getGenericReturnType(), unwrap);
+                    return sendCommand(domainMethod, domainMethod.params(args));
                 });
     }
 
@@ -104,8 +104,8 @@ public abstract class CDPBase {
                 log.trace("{}{}", event.method(), ellipses(logJson.writeValueAsString(event.params())));
             } catch (JsonProcessingException ignored) {}
         }
-        Consumer<JsonNode> handler = listeners.get(event.method());
-        if (handler != null) {
+        Consumer<Object> handler = listeners.get(event.method());
+        if (handler != null && event.params() != null) {
             try {
                 handler.accept(event.params());
             } catch (Exception e) {
@@ -114,33 +114,25 @@ public abstract class CDPBase {
         }
     }
 
-    private static String eventName(Class<?> eventClass) {
-        String className = eventClass.getSimpleName();
-        return  eventClass.getEnclosingClass().getSimpleName() + "."
-                + className.substring(0, 1).toLowerCase(Locale.ROOT)
-                + className.substring(1);
-    }
-
     public <T> void addListener(Class<T> eventClass, Consumer<T> callback) {
-        listeners.put(eventName(eventClass), params -> {
-            try {
-                callback.accept(RPC.JSON.treeToValue(params, eventClass));
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
+        listeners.put(EventTypes.register(eventClass), params -> {
+            if (params instanceof JsonNode node) {
+                try {
+                    callback.accept(RPC.JSON.treeToValue(node, eventClass));
+                } catch (JsonProcessingException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                callback.accept(eventClass.cast(params));
             }
         });
     }
 
-    Object sendCommand(String method, Map<String, Object> params, Type returnType, Unwrap unwrap) {
-        if (Thread.currentThread() == executorThread
-            && !(returnType instanceof ParameterizedType parameterizedType &&
-                 CompletionStage.class.isAssignableFrom((Class<?>) parameterizedType.getRawType()))) {
+    Object sendCommand(DomainMethod domainMethod, Map<String, Object> params) {
+        if (!domainMethod.async && Thread.currentThread() == executorThread) {
             throw new IllegalStateException("Sending command on the event handler thread would deadlock");
         }
-
-        if (method.endsWith("Async")) {
-            method = method.substring(0, method.length() - "Async".length());
-        }
+        String method = domainMethod.command;
 
         long commandId = nextCommandId();
 
@@ -171,38 +163,20 @@ public abstract class CDPBase {
             commands.put(commandId, future);
             sendCommandMessage(commandId, method, params);
 
-            Type valueType;
-            boolean returnsCompletionStage;
-            if (returnType instanceof ParameterizedType parameterizedType &&
-                CompletionStage.class.isAssignableFrom((Class<?>)parameterizedType.getRawType())) {
-                valueType = parameterizedType.getActualTypeArguments()[0];
-                returnsCompletionStage = true;
-            } else {
-                valueType = returnType;
-                returnsCompletionStage = false;
-            }
-
-            CompletableFuture<?> mappedFuture = future.thenApply(result -> {
-                ObjectReader reader;
-                if (unwrap != null) {
-                    String rootName = unwrap.value().isEmpty() ?
-                            lowercaseFirstLetter(((Class<?>)valueType).getSimpleName()) : unwrap.value();
-                    reader = RPC.JSON.reader(DeserializationFeature.UNWRAP_ROOT_VALUE)
-                            .withRootName(rootName);
-                } else {
-                    reader = RPC.JSON.reader();
-                }
+            ObjectReader reader = domainMethod.reader;
+            CompletableFuture<?> mappedFuture = reader == null ? future : future.thenApply(result -> {
                 try {
-                    return reader.treeToValue(result, RPC.JSON.constructType(valueType));
+                    return reader.treeToValue(result, domainMethod.valueType);
                 } catch (JsonProcessingException e) {
                     throw new UncheckedIOException(e);
                 }
             });
-            if (returnsCompletionStage) {
+            if (domainMethod.async) {
                 leaveCommandInMap = true;
-                return mappedFuture;
+                return reader == null ? future.thenApply(result -> null) : mappedFuture;
             } else {
-                return mappedFuture.get(120, TimeUnit.SECONDS);
+                Object value = mappedFuture.get(120, TimeUnit.SECONDS);
+                return reader == null ? null : value;
             }
         } catch (ExecutionException e) {
             if (e.getCause() instanceof CDPException cdpException) {
@@ -224,10 +198,6 @@ public abstract class CDPBase {
         }
     }
 
-    private static String lowercaseFirstLetter(String s) {
-        return s.substring(0, 1).toLowerCase(Locale.ROOT) + s.substring(1);
-    }
-
     protected abstract void sendCommandMessage(long commandId, String method, Map<String, Object> params) throws IOException;
 
     protected abstract long nextCommandId();
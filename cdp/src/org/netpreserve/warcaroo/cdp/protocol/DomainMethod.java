@@ -0,0 +1,171 @@
+package org.netpreserve.warcaroo.cdp.protocol;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * What the domain proxy needs to know about a method of a CDP domain interface. Computed once per method so that
+ * calls don't have to use reflection.
+ */
+final class DomainMethod {
+    private static final ClassValue<Map<Method, DomainMethod>> TABLES = new ClassValue<>() {
+        @Override
+        protected Map<Method, DomainMethod> computeValue(Class<?> domainInterface) {
+            var table = new HashMap<Method, DomainMethod>();
+            for (Method method : domainInterface.getMethods()) {
+                if (method.isDefault() || Modifier.isStatic(method.getModifiers())) continue;
+                table.put(method, new DomainMethod(domainInterface, method));
+            }
+            return Map.copyOf(table);
+        }
+    };
+
+    /**
+     * Event class for listener registration methods (onXxx(Consumer&lt;Event&gt;)), otherwise null.
+     */
+    final Class<?> eventClass;
+    /**
+     * CDP command name, e.g. "Fetch.continueRequest".
+     */
+    final String command;
+    final String[] parameterNames;
+    /**
+     * True if the method returns a CompletionStage rather than waiting for the result.
+     */
+    final boolean async;
+    final JavaType valueType;
+    /**
+     * Reader for the command's result, null if the method returns void.
+     */
+    final ObjectReader reader;
+
+    private DomainMethod(Class<?> domainInterface, Method method) {
+        var parameters = method.getParameters();
+        if (method.getName().startsWith("on") && parameters.length == 1
+            && parameters[0].getType() == Consumer.class) {
+            var type = (ParameterizedType) method.getGenericParameterTypes()[0];
+            eventClass = (Class<?>) type.getActualTypeArguments()[0];
+            command = null;
+            parameterNames = null;
+            async = false;
+            valueType = null;
+            reader = null;
+            return;
+        }
+        eventClass = null;
+
+        String name = method.getName();
+        if (name.endsWith("Async")) name = name.substring(0, name.length() - "Async".length());
+        command = domainInterface.getSimpleName() + "." + name;
+
+        parameterNames = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            parameterNames[i] = parameters[i].getName();
+        }
+
+        Type returnType = method.getGenericReturnType();
+        if (returnType instanceof ParameterizedType parameterizedType &&
+            CompletionStage.class.isAssignableFrom((Class<?>) parameterizedType.getRawType())) {
+            returnType = parameterizedType.getActualTypeArguments()[0];
+            async = true;
+        } else {
+            async = false;
+        }
+        valueType = RPC.JSON.constructType(returnType);
+
+        if (returnType == void.class || returnType == Void.class) {
+            reader = null;
+        } else {
+            Unwrap unwrap = method.getAnnotation(Unwrap.class);
+            if (unwrap != null) {
+                String rootName = unwrap.value().isEmpty() ?
+                        lowercaseFirstLetter(((Class<?>) returnType).getSimpleName()) : unwrap.value();
+                reader = RPC.JSON.reader(DeserializationFeature.UNWRAP_ROOT_VALUE).withRootName(rootName)
+                        .forType(valueType);
+            } else {
+                reader = RPC.JSON.readerFor(valueType);
+            }
+        }
+    }
+
+    /**
+     * Returns the descriptors of a domain interface's methods. Methods inherited from Object aren't included.
+     */
+    static Map<Method, DomainMethod> of(Class<?> domainInterface) {
+        return TABLES.get(domainInterface);
+    }
+
+    boolean isListener() {
+        return eventClass != null;
+    }
+
+    /**
+     * Returns the command parameters as a map view over the call arguments, leaving out nulls.
+     */
+    Map<String, Object> params(Object[] args) {
+        if (args == null || args.length == 0) return Map.of();
+        return new Params(parameterNames, args);
+    }
+
+    private static String lowercaseFirstLetter(String s) {
+        return s.substring(0, 1).toLowerCase(Locale.ROOT) + s.substring(1);
+    }
+
+    private static final class Params extends AbstractMap<String, Object> {
+        private final String[] names;
+        private final Object[] values;
+
+        Params(String[] names, Object[] values) {
+            this.names = names;
+            this.values = values;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int next = skipNulls(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < values.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (next >= values.length) throw new NoSuchElementException();
+                            var entry = new SimpleImmutableEntry<>(names[next], values[next]);
+                            next = skipNulls(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Object value : values) {
+                        if (value != null) size++;
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private int skipNulls(int i) {
+            while (i < values.length && values[i] == null) i++;
+            return i;
+        }
+    }
+}
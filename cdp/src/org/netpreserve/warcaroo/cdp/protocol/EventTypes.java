@@ -0,0 +1,41 @@
+package org.netpreserve.warcaroo.cdp.protocol;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the event types that have listeners, so incoming event params can be read straight into the event
+ * record while the message is parsed. Events nobody has registered for are skipped without being parsed.
+ */
+final class EventTypes {
+    private static final Map<String, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private EventTypes() {
+    }
+
+    /**
+     * Registers an event class and returns its CDP event name, e.g. Network.DataReceived -> "Network.dataReceived".
+     */
+    static String register(Class<?> eventClass) {
+        String name = eventName(eventClass);
+        readers.computeIfAbsent(name, key -> RPC.JSON.readerFor(eventClass));
+        return name;
+    }
+
+    /**
+     * Returns the reader for an event's params, or null if no listener has been registered for it.
+     */
+    static ObjectReader reader(String eventName) {
+        return readers.get(eventName);
+    }
+
+    static String eventName(Class<?> eventClass) {
+        String className = eventClass.getSimpleName();
+        return eventClass.getEnclosingClass().getSimpleName() + "."
+               + className.substring(0, 1).toLowerCase(Locale.ROOT)
+               + className.substring(1);
+    }
+}
@@ -1,12 +1,13 @@
 package org.netpreserve.warcaroo.cdp.protocol;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonSubTypes;
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.core.JsonFactoryBuilder;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -19,11 +20,22 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.WebSocket;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +44,9 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public interface RPC {
     ObjectMapper JSON = new ObjectMapper(new JsonFactoryBuilder()
             .streamReadConstraints(StreamReadConstraints.builder().maxStringLength(300 * 1024 * 1024).build())
@@ -50,13 +65,14 @@ public interface RPC {
     record Command(long id, String method, Map<String, Object> params, String sessionId) {
     }
 
-    @JsonTypeInfo(use = JsonTypeInfo.Id.DEDUCTION)
-    @JsonSubTypes({@JsonSubTypes.Type(Event.class), @JsonSubTypes.Type(Response.class)})
     interface ServerMessage {
         String sessionId();
     }
 
-    record Event(String method, ObjectNode params, String sessionId) implements ServerMessage {
+    /**
+     * @param params the event record if a listener is registered for the event, otherwise null
+     */
+    record Event(String method, Object params, String sessionId) implements ServerMessage {
     }
 
     record Response(long id, ObjectNode result, Error error, String sessionId) implements ServerMessage {
@@ -65,11 +81,64 @@ public interface RPC {
     record Error(int code, String message) {
     }
 
+    /**
+     * Parses a message from the browser. Event params are read directly into the registered event type (see
+     * {@link EventTypes}) rather than via an intermediate tree, and skipped if there's no listener for the event.
+     */
+    static ServerMessage readMessage(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) throw new JsonParseException(parser, "Expected object");
+        String method = null;
+        String sessionId = null;
+        Long id = null;
+        Object params = null;
+        TreeNode earlyParams = null;
+        ObjectNode result = null;
+        Error error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "method" -> method = parser.getText();
+                case "sessionId" -> sessionId = parser.getText();
+                case "id" -> id = parser.getLongValue();
+                case "params" -> {
+                    if (method == null) {
+                        // Chrome sends method first but don't rely on it
+                        earlyParams = parser.readValueAsTree();
+                    } else {
+                        var reader = EventTypes.reader(method);
+                        if (reader == null) {
+                            parser.skipChildren();
+                        } else {
+                            params = reader.readValue(parser);
+                        }
+                    }
+                }
+                case "result" -> result = parser.readValueAsTree();
+                case "error" -> error = parser.readValueAs(Error.class);
+                default -> parser.skipChildren();
+            }
+        }
+        if (method != null) {
+            if (earlyParams != null) {
+                var reader = EventTypes.reader(method);
+                if (reader != null) params = reader.readValue(JSON.treeAsTokens(earlyParams));
+            }
+            return new Event(method, params, sessionId);
+        }
+        if (id == null) throw new JsonParseException(parser, "Message has neither a method nor an id");
+        return new Response(id, result, error, sessionId);
+    }
+
     class Socket implements RPC {
         private static final Logger log = LoggerFactory.getLogger(Socket.class);
         private static final HttpClient httpClient = HttpClient.newHttpClient();
+        private static final int READ_BUFFER_SIZE = 64 * 1024;
+        private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
         private final WebSocket webSocket;
         private final Consumer<ServerMessage> messageHandler;
+        private final Lock sendLock = new ReentrantLock();
+        private StringWriter sendBuffer = new StringWriter();
 
         public Socket(URI devtoolsUrl, Consumer<ServerMessage> messageHandler) throws IOException {
             this.messageHandler = messageHandler;
@@ -82,9 +151,26 @@ public interface RPC {
             }
         }
 
+        /**
+         * Serializes into a reused buffer and waits for the send to finish before releasing it. WebSocket doesn't
+         * allow a second sendText while one is still outstanding anyway.
+         */
         @Override
-        public void send(Command message) throws JsonProcessingException {
-            webSocket.sendText(JSON.writeValueAsString(message), true);
+        public void send(Command message) throws IOException {
+            sendLock.lock();
+            try {
+                StringBuffer buffer = sendBuffer.getBuffer();
+                buffer.setLength(0);
+                JSON.writeValue(sendBuffer, message);
+                try {
+                    webSocket.sendText(buffer, true).join();
+                } catch (CompletionException e) {
+                    throw new IOException("Error sending CDP command", e.getCause());
+                }
+                if (buffer.capacity() > MAX_RETAINED_BUFFER) sendBuffer = new StringWriter();
+            } finally {
+                sendLock.unlock();
+            }
         }
 
         @Override
@@ -98,95 +184,172 @@ public interface RPC {
             // TODO
         }
 
+        /**
+         * Collects message fragments into a reused char array and parses from that, rather than building a String.
+         */
         private class Listener implements WebSocket.Listener {
-            private final StringBuilder buffer = new StringBuilder();
+            private char[] buffer = new char[READ_BUFFER_SIZE];
+            private int length;
 
             @Override
             public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                append(data);
                 if (!last) {
-                    buffer.append(data);
                     webSocket.request(1);
                     return null;
                 }
-                if (!buffer.isEmpty()) {
-                    buffer.append(data);
-                    data = buffer.toString();
-                    buffer.setLength(0);
-                }
                 try {
-                    var message = JSON.readValue(data.toString(), ServerMessage.class);
+                    ServerMessage message;
+                    try (var parser = JSON.createParser(buffer, 0, length)) {
+                        message = readMessage(parser);
+                    }
                     messageHandler.accept(message);
                 } catch (IOException e) {
                     log.error("Failed to parse message", e);
+                } finally {
+                    length = 0;
+                    if (buffer.length > MAX_RETAINED_BUFFER) buffer = new char[READ_BUFFER_SIZE];
                 }
                 webSocket.request(1);
                 return null;
             }
+
+            private void append(CharSequence data) {
+                int n = data.length();
+                if (length + n > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + n));
+                }
+                if (data instanceof String string) {
+                    string.getChars(0, n, buffer, length);
+                } else if (data instanceof CharBuffer charBuffer) {
+                    charBuffer.get(charBuffer.position(), buffer, length, n);
+                } else {
+                    for (int i = 0; i < n; i++) buffer[length + i] = data.charAt(i);
+                }
+                length += n;
+            }
         }
     }
 
+    /**
+     * CDP over the browser's --remote-debugging-pipe file descriptors.
+     * <p>
+     * The reader thread only splits the stream into messages and finds each one's top-level sessionId. Parsing and
+     * dispatch happen on a fixed set of parser threads, with all messages for a session going to the same thread so
+     * they're still handled in order.
+     */
     class Pipe implements RPC {
         private static final Logger log = LoggerFactory.getLogger(Pipe.class);
+        static final int DEFAULT_PARSER_THREADS = Math.max(1, Math.min(8,
+                Runtime.getRuntime().availableProcessors() / 2));
+        private static final int PARSER_QUEUE_SIZE = 256;
+        private static final byte[] END = new byte[0];
+        private static final byte[] SESSION_ID_KEY = "\"sessionId\"".getBytes(US_ASCII);
+        private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+                ByteOrder.LITTLE_ENDIAN);
+        private static final int READ_BUFFER_SIZE = 256 * 1024;
+        private static final int MAX_RETAINED_SEND_BUFFER = 1024 * 1024;
         private final InputStream inputStream;
         private final OutputStream outputStream;
         private final Consumer<ServerMessage> messageHandler;
         private final Runnable closeHandler;
         private final Lock writeLock = new ReentrantLock();
+        private ByteArrayOutputStream sendBuffer = new ByteArrayOutputStream(8192);
         private final Thread thread;
+        private final List<BlockingQueue<byte[]>> parserQueues = new ArrayList<>();
+        private final List<Thread> parserThreads = new ArrayList<>();
 
         public Pipe(InputStream inputStream, OutputStream outputStream, Consumer<ServerMessage> messageHandler,
                     Runnable closeHandler) {
+            this(inputStream, outputStream, messageHandler, closeHandler, DEFAULT_PARSER_THREADS);
+        }
+
+        public Pipe(InputStream inputStream, OutputStream outputStream, Consumer<ServerMessage> messageHandler,
+                    Runnable closeHandler, int parserThreads) {
             this.inputStream = inputStream;
             this.outputStream = outputStream;
             this.messageHandler = messageHandler;
             this.closeHandler = closeHandler;
+            for (int i = 0; i < parserThreads; i++) {
+                var queue = new ArrayBlockingQueue<byte[]>(PARSER_QUEUE_SIZE);
+                var parserThread = new Thread(() -> parse(queue), "CDP.Pipe-parser-" + i);
+                parserThread.setDaemon(true);
+                parserThread.start();
+                parserQueues.add(queue);
+                this.parserThreads.add(parserThread);
+            }
             this.thread = new Thread(this::run, "CDP.Pipe");
             thread.setDaemon(true);
             thread.start();
         }
 
-        private static int findNullByte(byte[] buffer, int offset, int length) {
-            for (int i = offset; i < length; i++) {
+        /**
+         * Returns the index of the first zero byte in buffer[from..to), or -1. Checks eight bytes at a time using
+         * the usual "has zero byte" bit trick; the lowest flagged byte is always a real zero.
+         */
+        static int findNullByte(byte[] buffer, int from, int to) {
+            int i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES) {
+                long word = (long) LONGS.get(buffer, i);
+                long zeros = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+                if (zeros != 0) return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+            }
+            for (; i < to; i++) {
                 if (buffer[i] == 0) return i;
             }
             return -1;
         }
 
+        /**
+         * Reads directly into a single buffer that grows when a message doesn't fit. Unconsumed bytes are compacted to
+         * the front rather than accumulated elsewhere, so each message is copied exactly once: into the array handed
+         * to its parser thread.
+         */
         private void run() {
-            ByteArrayOutputStream partialMessage = null;
-            byte[] buffer = new byte[256 * 1024]; // 256 KiB
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int start = 0; // start of the current message
+            int scanned = 0; // bytes before this contain no terminator
+            int end = 0; // end of the data read so far
             try {
                 while (true) {
-                    int bytesRead = inputStream.read(buffer);
+                    if (end == buffer.length) {
+                        if (start > 0) {
+                            System.arraycopy(buffer, start, buffer, 0, end - start);
+                            end -= start;
+                            scanned -= start;
+                            start = 0;
+                        } else {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                    }
+                    int bytesRead = inputStream.read(buffer, end, buffer.length - end);
                     if (bytesRead < 0) {
                         log.info("Received end of stream");
                         return;
                     }
-                    int startOfMessage = 0;
+                    end += bytesRead;
                     while (true) {
-                        int endOfMessage = findNullByte(buffer, startOfMessage, bytesRead);
-                        if (endOfMessage == -1) break;
-                        if (partialMessage == null) {
-                            handleMessage(buffer, startOfMessage, endOfMessage - startOfMessage);
-                        } else {
-                            partialMessage.write(buffer, startOfMessage, endOfMessage - startOfMessage);
-                            byte[] message = partialMessage.toByteArray();
-                            handleMessage(message, 0, message.length);
-                            partialMessage = null;
+                        int endOfMessage = findNullByte(buffer, scanned, end);
+                        if (endOfMessage == -1) {
+                            scanned = end;
+                            break;
                         }
-                        startOfMessage = endOfMessage + 1;
+                        dispatch(Arrays.copyOfRange(buffer, start, endOfMessage));
+                        start = scanned = endOfMessage + 1;
                     }
-
-                    // Copy leftover data if we have an incomplete message
-                    if (startOfMessage < bytesRead) {
-                        if (partialMessage == null) partialMessage = new ByteArrayOutputStream();
-                        partialMessage.write(buffer, startOfMessage, bytesRead - startOfMessage);
+                    if (start == end) {
+                        start = scanned = end = 0;
+                        // don't hang on to the memory after an unusually large message
+                        if (buffer.length > READ_BUFFER_SIZE) buffer = new byte[READ_BUFFER_SIZE];
                     }
                 }
             } catch (IOException e) {
                 log.error("Error reading CDPPipe", e);
+            } catch (InterruptedException e) {
+                log.error("Interrupted reading CDPPipe", e);
             } finally {
                 close();
+                stopParsers();
                 try {
                     closeHandler.run();
                 } catch (Exception e) {
@@ -195,24 +358,106 @@ public interface RPC {
             }
         }
 
-        private void handleMessage(byte[] buffer, int offset, int len) throws IOException {
+        private void dispatch(byte[] message) throws InterruptedException {
+            int stripe = 0;
+            if (parserQueues.size() > 1) {
+                int hash = sessionIdHash(message);
+                if (hash != 0) stripe = Math.floorMod(hash, parserQueues.size());
+            }
+            parserQueues.get(stripe).put(message);
+        }
+
+        private void parse(BlockingQueue<byte[]> queue) {
+            while (true) {
+                byte[] message;
+                try {
+                    message = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (message == END) return;
+                try {
+                    handleMessage(message);
+                } catch (Exception e) {
+                    log.error("Error handling CDP message", e);
+                }
+            }
+        }
+
+        private void stopParsers() {
+            try {
+                for (var queue : parserQueues) queue.put(END);
+                for (var parserThread : parserThreads) parserThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void handleMessage(byte[] message) throws IOException {
             if (log.isTraceEnabled()) {
-                log.trace("<- {}", LogUtils.ellipses(new String(buffer, offset, len)));
+                log.trace("<- {}", LogUtils.ellipses(new String(message)));
+            }
+            ServerMessage parsed;
+            try (var parser = JSON.createParser(message)) {
+                parsed = readMessage(parser);
+            }
+            messageHandler.accept(parsed);
+        }
+
+        /**
+         * Returns a hash of the value of the message's top-level sessionId field, or 0 if there isn't one. Only tracks
+         * nesting and strings so it's much cheaper than parsing. A sessionId field inside params (e.g. in
+         * Target.attachedToTarget) is ignored.
+         */
+        static int sessionIdHash(byte[] message) {
+            int depth = 0;
+            for (int i = 0; i < message.length; i++) {
+                byte b = message[i];
+                if (b == '"') {
+                    if (depth == 1 && startsWith(message, i, SESSION_ID_KEY)) {
+                        int j = i + SESSION_ID_KEY.length;
+                        while (j < message.length && (message[j] == ':' || message[j] == ' ')) j++;
+                        if (j < message.length && message[j] == '"') {
+                            int hash = 1;
+                            for (j++; j < message.length && message[j] != '"'; j++) hash = 31 * hash + message[j];
+                            return hash == 0 ? 1 : hash;
+                        }
+                    }
+                    // skip over the string
+                    for (i++; i < message.length && message[i] != '"'; i++) {
+                        if (message[i] == '\\') i++;
+                    }
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+            return 0;
+        }
+
+        private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+            if (offset + prefix.length > bytes.length) return false;
+            for (int i = 0; i < prefix.length; i++) {
+                if (bytes[offset + i] != prefix[i]) return false;
             }
-            var message = JSON.readValue(buffer, offset, len, ServerMessage.class);
-            messageHandler.accept(message);
+            return true;
         }
 
         @Override
         public void send(Command message) throws IOException {
             writeLock.lock();
             try {
+                // serialize into a reused buffer so the message and its terminator go out in a single write
+                sendBuffer.reset();
+                JSON.writeValue(sendBuffer, message);
                 if (log.isTraceEnabled()) {
-                    log.trace("-> {}", LogUtils.ellipses(JSON.writeValueAsString(message)));
+                    log.trace("-> {}", LogUtils.ellipses(sendBuffer.toString(UTF_8)));
                 }
-                JSON.writeValue(outputStream, message);
-                outputStream.write(0);
+                sendBuffer.write(0);
+                sendBuffer.writeTo(outputStream);
                 outputStream.flush();
+                if (sendBuffer.size() > MAX_RETAINED_SEND_BUFFER) sendBuffer = new ByteArrayOutputStream(8192);
             } finally {
                 writeLock.unlock();
             }
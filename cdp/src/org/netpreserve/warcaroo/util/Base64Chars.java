@@ -0,0 +1,125 @@
+package org.netpreserve.warcaroo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Decodes base64 from a String in fixed-size pieces using caller supplied (typically pooled) arrays, so that neither
+ * an ASCII copy of the whole input nor the whole output has to be allocated as {@link Base64.Decoder#decode(String)}
+ * does.
+ */
+public final class Base64Chars {
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+    private static final byte[] VALUES = new byte[256];
+    private static final ThreadLocal<Narrower> NARROWER = ThreadLocal.withInitial(Narrower::new);
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private Base64Chars() {
+    }
+
+    public interface PieceConsumer {
+        void accept(byte[] data, int length);
+    }
+
+    /**
+     * Decodes src a piece at a time, passing each decoded piece to the consumer.
+     * <p>
+     * Pieces of exactly {@code input.length} characters are handed to the JDK decoder, which is intrinsified on common
+     * platforms. Only the final, shorter piece is decoded here. The characters are copied to input as ISO-8859-1
+     * rather than with the deprecated String.getBytes(int, int, byte[], int), which truncates chars to bytes and so
+     * would turn U+0141 into a valid 'A'. Characters above U+00FF are rejected by the encoder and U+0080-U+00FF by the
+     * decoders.
+     *
+     * @param input  scratch array for the encoded characters, its length must be a multiple of 4
+     * @param output scratch array for the decoded bytes, at least 3/4 of the length of input
+     * @throws IllegalArgumentException if src isn't valid base64
+     */
+    public static void decode(String src, byte[] input, byte[] output, PieceConsumer consumer) {
+        if (input.length % 4 != 0) throw new IllegalArgumentException("input length must be a multiple of 4");
+        if (output.length < input.length / 4 * 3) throw new IllegalArgumentException("output is too small");
+        Narrower narrower = NARROWER.get();
+        int start = 0;
+        for (; start + input.length < src.length(); start += input.length) {
+            narrower.narrow(src, start, start + input.length, input);
+            consumer.accept(output, DECODER.decode(input, output));
+        }
+        int length = src.length() - start;
+        narrower.narrow(src, start, src.length(), input);
+        int decoded = decodeFinal(input, length, output);
+        if (decoded > 0) consumer.accept(output, decoded);
+    }
+
+    /**
+     * Decodes input[0..length), which may be padded or end in a partial group.
+     */
+    static int decodeFinal(byte[] input, int length, byte[] output) {
+        if (length > 0 && input[length - 1] == '=') length--;
+        if (length > 0 && input[length - 1] == '=') length--;
+        int out = 0;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            int bits = VALUES[input[i] & 0xff] << 18 | VALUES[input[i + 1] & 0xff] << 12 |
+                       VALUES[input[i + 2] & 0xff] << 6 | VALUES[input[i + 3] & 0xff];
+            if (bits < 0) throw illegalCharacter(input, i, 4);
+            output[out] = (byte) (bits >> 16);
+            output[out + 1] = (byte) (bits >> 8);
+            output[out + 2] = (byte) bits;
+            out += 3;
+        }
+        int remaining = length - i;
+        if (remaining == 1) throw new IllegalArgumentException("Truncated base64 input");
+        if (remaining > 1) {
+            int bits = VALUES[input[i] & 0xff] << 18 | VALUES[input[i + 1] & 0xff] << 12;
+            if (remaining == 3) bits |= VALUES[input[i + 2] & 0xff] << 6;
+            if (bits < 0) throw illegalCharacter(input, i, remaining);
+            output[out++] = (byte) (bits >> 16);
+            if (remaining == 3) output[out++] = (byte) (bits >> 8);
+        }
+        return out;
+    }
+
+    private static IllegalArgumentException illegalCharacter(byte[] input, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (VALUES[input[i] & 0xff] < 0) {
+                return new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(input[i] & 0xff));
+            }
+        }
+        return new IllegalArgumentException("Illegal base64 input");
+    }
+
+    /**
+     * Copies chars to bytes through a small char array so the JDK's vectorized Latin-1 inflate and ISO-8859-1 encode
+     * loops do the work.
+     */
+    private static class Narrower {
+        private final char[] chars = new char[1024];
+        private final CharBuffer charBuffer = CharBuffer.wrap(chars);
+        private final CharsetEncoder encoder = StandardCharsets.ISO_8859_1.newEncoder();
+
+        void narrow(String src, int from, int to, byte[] dst) {
+            ByteBuffer out = ByteBuffer.wrap(dst);
+            for (int i = from; i < to; i += chars.length) {
+                int end = Math.min(to, i + chars.length);
+                src.getChars(i, end, chars, 0);
+                charBuffer.clear().limit(end - i);
+                CoderResult result = encoder.reset().encode(charBuffer, out, true);
+                if (result.isError()) {
+                    throw new IllegalArgumentException("Illegal base64 character " +
+                                                       Integer.toHexString(src.charAt(i + charBuffer.position())));
+                }
+            }
+        }
+    }
+}
@@ -72,6 +72,17 @@ public class Url {
         return builder.toString();
     }
 
+    /**
+     * Returns the SURT form of the URL used as the sort key of CDX indexes, e.g. "com,example)/path?a=1".
+     */
+    public String surt() {
+        ParsedUrl copy = new ParsedUrl(parse());
+        Canonicalizer.AGGRESSIVE.canonicalize(copy);
+        String surt = copy.surtWithoutTrailingComma();
+        int i = surt.indexOf("://(");
+        return i >= 0 ? surt.substring(i + 4) : surt;
+    }
+
     public String scheme() {
         return parse().getScheme();
     }
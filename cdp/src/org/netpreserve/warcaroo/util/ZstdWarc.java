@@ -0,0 +1,122 @@
+package org.netpreserve.warcaroo.util;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Reading support for zstd compressed WARC files as described by the IIPC draft specification
+ * (https://iipc.github.io/warc-specifications/specifications/warc-zstd/).
+ * <p>
+ * Each record is compressed as a separate zstd frame so it can be read from its offset. If a dictionary was used it's
+ * stored at the start of the file in a skippable frame with the magic number {@link #DICTIONARY_MAGIC}.
+ */
+public final class ZstdWarc {
+    public static final int DICTIONARY_MAGIC = 0x184D2A5D;
+    public static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+
+    private ZstdWarc() {
+    }
+
+    public static boolean isZstd(Path file) {
+        return file.getFileName().toString().endsWith(".zst");
+    }
+
+    /**
+     * Opens a stream of the decompressed records starting from the frame at the given position.
+     */
+    public static InputStream open(Path file, long position) throws IOException {
+        var channel = FileChannel.open(file);
+        try {
+            byte[] dictionary = readDictionary(channel);
+            channel.position(position);
+            var stream = new ZstdInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (dictionary != null) stream.setDict(dictionary);
+            return stream;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the dictionary frame from the start of the file. Returns null if the file doesn't have one.
+     */
+    public static byte[] readDictionary(FileChannel channel) throws IOException {
+        if (channel.size() < 8) return null;
+        var header = read(channel, 0, 8);
+        if (header.getInt() != DICTIONARY_MAGIC) return null;
+        byte[] dictionary = new byte[header.getInt()];
+        read(channel, 8, dictionary.length).get(dictionary);
+        if (dictionary.length >= 4 && ByteBuffer.wrap(dictionary).order(ByteOrder.LITTLE_ENDIAN).getInt() == FRAME_MAGIC) {
+            // the dictionary itself may be compressed
+            dictionary = Zstd.decompress(dictionary, (int) Zstd.decompressedSize(dictionary));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Returns the position of the first record, skipping the dictionary frame if present.
+     */
+    public static long firstRecord(FileChannel channel) throws IOException {
+        if (channel.size() < 8) return 0;
+        var header = read(channel, 0, 8);
+        if (header.getInt() != DICTIONARY_MAGIC) return 0;
+        return 8 + Integer.toUnsignedLong(header.getInt());
+    }
+
+    /**
+     * Returns the position of the frame following the one at the given position. This only parses the frame and
+     * block headers so it's much cheaper than decompressing.
+     */
+    public static long nextFrame(FileChannel channel, long position) throws IOException {
+        var header = read(channel, position, 5);
+        int magic = header.getInt();
+        if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+            return position + 8 + Integer.toUnsignedLong(read(channel, position + 4, 4).getInt());
+        }
+        if (magic != FRAME_MAGIC) throw new IOException("Not a zstd frame at position " + position);
+
+        int descriptor = header.get() & 0xff;
+        int contentSizeFlag = descriptor >>> 6;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        boolean checksum = (descriptor & 0x04) != 0;
+        int dictionaryIdFlag = descriptor & 0x03;
+        int headerSize = 1 + (singleSegment ? 0 : 1)
+                         + new int[]{0, 1, 2, 4}[dictionaryIdFlag]
+                         + new int[]{singleSegment ? 1 : 0, 2, 4, 8}[contentSizeFlag];
+
+        long offset = position + 4 + headerSize;
+        while (true) {
+            var blockHeader = read(channel, offset, 3);
+            int value = (blockHeader.get() & 0xff) | (blockHeader.get() & 0xff) << 8 | (blockHeader.get() & 0xff) << 16;
+            boolean last = (value & 1) != 0;
+            int type = (value >>> 1) & 3;
+            int size = value >>> 3;
+            offset += 3 + (type == 1 ? 1 : size); // RLE blocks store a single byte
+            if (last) break;
+        }
+        return checksum ? offset + 4 : offset;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated zstd frame at position " + position);
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,53 @@
+package org.netpreserve.warcaroo.cdp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BodyBufferTest {
+
+    @Test
+    public void smallBodiesStayInMemory(@TempDir Path tempDir) throws Exception {
+        byte[] data = randomBytes(BodyBuffer.CHUNK_SIZE * 2 + 123);
+        try (var buffer = new BodyBuffer(data.length, tempDir)) {
+            buffer.write(ByteBuffer.wrap(data, 0, 100));
+            buffer.write(ByteBuffer.wrap(data, 100, data.length - 100));
+            assertTrue(buffer.inMemory());
+            assertTrue(ResourceRecorderTest.isDirectoryEmpty(tempDir));
+            assertEquals(data.length, buffer.size());
+
+            buffer.position(0);
+            assertArrayEquals(data, Channels.newInputStream(buffer).readAllBytes());
+            assertEquals(-1, buffer.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void largeBodiesSpillToDisk(@TempDir Path tempDir) throws Exception {
+        byte[] data = randomBytes(BodyBuffer.CHUNK_SIZE * 3);
+        try (var buffer = new BodyBuffer(BodyBuffer.CHUNK_SIZE + 10, tempDir)) {
+            buffer.write(ByteBuffer.wrap(data, 0, BodyBuffer.CHUNK_SIZE));
+            assertTrue(buffer.inMemory());
+            buffer.write(ByteBuffer.wrap(data, BodyBuffer.CHUNK_SIZE, data.length - BodyBuffer.CHUNK_SIZE));
+            assertFalse(buffer.inMemory());
+            assertEquals(data.length, buffer.size());
+            assertEquals(data.length, buffer.position());
+
+            buffer.position(0);
+            assertArrayEquals(data, Channels.newInputStream(buffer).readAllBytes());
+        }
+        assertTrue(ResourceRecorderTest.isDirectoryEmpty(tempDir));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,131 @@
+package org.netpreserve.warcaroo.cdp;
+
+import org.netpreserve.warcaroo.cdp.domains.Fetch;
+import org.netpreserve.warcaroo.cdp.domains.Network;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the bytes allocated by {@link ResourceRecorder} per captured resource: formatting the request and response
+ * headers and decoding and buffering the body from Network.dataReceived events. The events themselves are created up
+ * front as they're allocated by the CDP parser, not the recorder.
+ * <p>
+ * Run with: {@code java -cp <test classpath> org.netpreserve.warcaroo.cdp.CaptureAllocationBenchmark [resources]}
+ */
+public class CaptureAllocationBenchmark {
+    private static final int BODY_SIZE = 128 * 1024;
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int resources = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        Path tempDir = Files.createTempDirectory("capture-benchmark");
+        try {
+            var fixture = new Fixture();
+            for (int i = 0; i < resources / 4; i++) fixture.capture(tempDir); // warm up
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < resources; i++) fixture.capture(tempDir);
+            long nanos = System.nanoTime() - start;
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            System.out.printf("%,d bytes allocated per resource (%,d byte body), %.1f us per resource%n",
+                    allocated / resources, BODY_SIZE, nanos / 1000.0 / resources);
+        } finally {
+            Files.deleteIfExists(tempDir);
+        }
+    }
+
+    private static class Fixture {
+        final Network.RequestId networkId = new Network.RequestId("1000.1");
+        final Network.Request request;
+        final Fetch.RequestPaused requestPaused;
+        final Network.RequestWillBeSentExtraInfo requestExtraInfo;
+        final Network.ResponseReceivedExtraInfo responseExtraInfo;
+        final Network.ResponseReceived responseReceived;
+        final List<Network.DataReceived> chunks = new ArrayList<>();
+        final Network.LoadingFinished loadingFinished;
+
+        Fixture() {
+            var requestHeaders = new Network.Headers();
+            requestHeaders.put("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)");
+            requestHeaders.put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+            request = new Network.Request(new Url("https://www.example.org/some/path/page.html?query=1"), null, "GET",
+                    requestHeaders, null);
+            requestPaused = new Fetch.RequestPaused(new Fetch.RequestId("fetch-1"), request, null, null, null, 200,
+                    "OK", List.of(), networkId, null);
+            var extraHeaders = new LinkedHashMap<String, String>();
+            extraHeaders.put(":authority", "www.example.org");
+            extraHeaders.put(":method", "GET");
+            extraHeaders.put(":path", "/some/path/page.html?query=1");
+            extraHeaders.put("user-agent", requestHeaders.get("User-Agent"));
+            extraHeaders.put("accept", requestHeaders.get("Accept"));
+            extraHeaders.put("accept-encoding", "gzip, deflate, br, zstd");
+            extraHeaders.put("accept-language", "en-US,en;q=0.9");
+            extraHeaders.put("cookie", "a=1\nb=2");
+            extraHeaders.put("referer", "https://www.example.org/");
+            extraHeaders.put("sec-fetch-mode", "navigate");
+            requestExtraInfo = new Network.RequestWillBeSentExtraInfo(networkId, List.of(), Map.copyOf(extraHeaders));
+            String rawHeader = """
+                    HTTP/1.1 200 OK\r
+                    Date: Sat, 17 Oct 2026 00:00:00 GMT\r
+                    Content-Type: text/html; charset=utf-8\r
+                    Content-Length: 31337\r
+                    Content-Encoding: gzip\r
+                    Cache-Control: max-age=600\r
+                    Last-Modified: Fri, 16 Oct 2026 00:00:00 GMT\r
+                    ETag: "5f3c2a-7a69"\r
+                    Vary: Accept-Encoding\r
+                    Server: nginx\r
+                    Set-Cookie: session=abcdef0123456789; Path=/; HttpOnly\r
+                    X-Frame-Options: SAMEORIGIN\r
+                    \r
+                    """;
+            responseExtraInfo = new Network.ResponseReceivedExtraInfo(networkId, Map.of(), 200, rawHeader);
+            var responseHeaders = new Network.Headers();
+            responseHeaders.put("Content-Type", "text/html; charset=utf-8");
+            responseHeaders.put("Content-Encoding", "gzip");
+            responseHeaders.put("Content-Length", "31337");
+            var response = new Network.Response(request.url(), 200, "OK", responseHeaders, "text/html",
+                    null, request.headers(), false, 1, "192.0.2.1", 443,
+                    false, false, false, false, 31337, new Network.ResourceTiming(0),
+                    new Network.MillisSinceEpoch(System.currentTimeMillis()), "http/1.1");
+            responseReceived = new Network.ResponseReceived(networkId, null, 0, null, response, null);
+            var random = new Random(0);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int i = 0; i < BODY_SIZE / CHUNK_SIZE; i++) {
+                random.nextBytes(chunk);
+                chunks.add(new Network.DataReceived(networkId, 0, CHUNK_SIZE, 0,
+                        Base64.getEncoder().encodeToString(chunk)));
+            }
+            loadingFinished = new Network.LoadingFinished(networkId, 0, 31337);
+        }
+
+        void capture(Path tempDir) {
+            var recorder = new ResourceRecorder(networkId, tempDir, resource -> {
+                try {
+                    resource.responseBodyChannel().close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, null, false, ResourceRecorder.DEFAULT_DIGEST_ALGORITHMS, BODY_SIZE * 2, tempDir);
+            recorder.handleRequestWillBeSentExtraInfo(requestExtraInfo);
+            recorder.handleResponseReceivedExtraInfo(responseExtraInfo);
+            recorder.handleRequestPaused(requestPaused);
+            recorder.handleResponseReceived(responseReceived);
+            for (var chunk : chunks) recorder.handleDataReceived(chunk);
+            recorder.handleLoadingFinished(loadingFinished);
+        }
+    }
+}
@@ -62,4 +62,39 @@ class ResourceRecorderInterceptorTest {
         byte[] actual = ResourceRecorder.formatRequestHeader(request, null);
         assertEquals(expected, new String(actual, US_ASCII));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testRewriteRawHeader() {
+        String header = "HTTP/1.1 200 OK\r\n" +
+                        "content-encoding: gzip\r\n" +
+                        "Content-Type: text/html\r\n" +
+                        "CONTENT-LENGTH: 123\r\n" +
+                        "Transfer-Encoding: chunked\n" +
+                        "X-Content-Encoding: kept\r\n\r\n";
+        assertEquals("HTTP/1.1 200 OK\r\n" +
+                     "Content-Type: text/html\r\n" +
+                     "CONTENT-LENGTH: 456\r\n" +
+                     "X-Content-Encoding: kept\r\n\r\n", ResourceRecorder.rewriteRawHeader(header, 456L));
+        assertEquals("HTTP/1.1 200 OK\r\n" +
+                     "Content-Type: text/html\r\n" +
+                     "CONTENT-LENGTH: 123\r\n" +
+                     "X-Content-Encoding: kept\r\n\r\n", ResourceRecorder.rewriteRawHeader(header, null));
+        String unchanged = "HTTP/1.1 204 No Content\r\nServer: x\r\n\r\n";
+        assertSame(unchanged, ResourceRecorder.rewriteRawHeader(unchanged, null));
+    }
+
+    @Test
+    void testFormatResponseHeaderSplitsMultipleValues() {
+        var headers = new Network.Headers();
+        headers.put("Set-Cookie", "a=1\nb=2\n");
+        headers.put("Content-Length", "10");
+        headers.put("Empty", "");
+        headers.put("Blank", "\n");
+        assertEquals("HTTP/1.1 200 OK\r\n" +
+                     "Content-Length: 5\r\n" +
+                     "Empty: \r\n" +
+                     "Set-Cookie: a=1\r\n" +
+                     "Set-Cookie: b=2\r\n\r\n",
+                new String(ResourceRecorder.formatResponseHeader(200, "OK", headers, 5L), US_ASCII));
+    }
+}
@@ -11,6 +11,7 @@ import java.io.UncheckedIOException;
 import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
@@ -77,6 +78,9 @@ class ResourceRecorderTest {
         assertEquals("text/html", resource.responseType().value());
         assertEquals("1.2.3.4", resource.ipAddress());
         assertEquals("hihihi", new String(responseBodies.get(0), UTF_8));
+        assertEquals(6, resource.responseBodyLength());
+        assertArrayEquals(MessageDigest.getInstance("SHA-1").digest("hihihi".getBytes(UTF_8)),
+                resource.responseBodyDigests().get("SHA-1"));
     }
 
     public static boolean isDirectoryEmpty(Path directory) throws IOException {
@@ -0,0 +1,88 @@
+package org.netpreserve.warcaroo.cdp.protocol;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CDPBaseTest {
+    @Test
+    void testDomainProxy() throws Exception {
+        try (var cdp = new FakeCDP()) {
+            var example = cdp.domain(Example.class);
+            assertSame(example, cdp.domain(Example.class));
+            assertTrue(example.toString().startsWith("Example@"));
+            assertEquals(example, example);
+
+            cdp.reply = Map.of("value", "hello");
+            assertEquals("hello", example.getValue("a", null));
+            var command = cdp.sent.get(0);
+            assertEquals("Example.getValue", command.method());
+            assertEquals(Map.of("name", "a"), Map.copyOf(command.params()));
+            assertEquals("{\"name\":\"a\"}", RPC.JSON.writeValueAsString(command.params()));
+
+            cdp.reply = Map.of();
+            CompletionStage<Void> stage = example.doThingAsync(5);
+            assertNull(stage.toCompletableFuture().get(5, TimeUnit.SECONDS));
+            assertEquals("Example.doThing", cdp.sent.get(1).method());
+            assertEquals(Map.of("count", 5), Map.copyOf(cdp.sent.get(1).params()));
+
+            cdp.reply = Map.of("text", "x", "number", 1);
+            assertEquals(new Example.Result("x", 1), example.result());
+
+            var events = new CompletableFuture<Example.Thing>();
+            example.onThing(events::complete);
+            cdp.handleMessage(new RPC.Event("Example.thing", RPC.JSON.valueToTree(Map.of("x", "y")), null));
+            assertEquals(new Example.Thing("y"), events.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    interface Example {
+        @Unwrap("value")
+        String getValue(String name, Integer optional);
+
+        CompletionStage<Void> doThingAsync(int count);
+
+        Result result();
+
+        void onThing(Consumer<Thing> handler);
+
+        record Result(String text, int number) {
+        }
+
+        record Thing(String x) {
+        }
+    }
+
+    private static class FakeCDP extends CDPBase implements AutoCloseable {
+        final List<RPC.Command> sent = new ArrayList<>();
+        final AtomicLong ids = new AtomicLong();
+        Map<String, Object> reply;
+
+        @Override
+        protected void sendCommandMessage(long commandId, String method, Map<String, Object> params) {
+            sent.add(new RPC.Command(commandId, method, params, null));
+            ObjectNode result = RPC.JSON.valueToTree(reply);
+            handleMessage(new RPC.Response(commandId, result, null, null));
+        }
+
+        @Override
+        protected long nextCommandId() {
+            return ids.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+        }
+    }
+}
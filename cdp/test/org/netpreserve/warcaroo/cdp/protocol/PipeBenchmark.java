@@ -0,0 +1,76 @@
+package org.netpreserve.warcaroo.cdp.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures how many messages per second {@link RPC.Pipe} can parse and dispatch as the number of sessions sharing the
+ * pipe grows, with a single parser thread and with several.
+ * <p>
+ * Run with: {@code java -cp <test classpath> org.netpreserve.warcaroo.cdp.protocol.PipeBenchmark [messages [parsers]]}
+ */
+public class PipeBenchmark {
+    private static final int[] SESSION_COUNTS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int parsers = args.length > 1 ? Integer.parseInt(args[1]) : RPC.Pipe.DEFAULT_PARSER_THREADS;
+        EventTypes.register(Network.DataReceived.class);
+        System.out.printf("%8s %14s %14s%n", "sessions", "1 parser", parsers + " parsers");
+        for (int sessions : SESSION_COUNTS) {
+            byte[] input = generate(messages, sessions);
+            run(input, messages, 1); // warm up
+            double single = run(input, messages, 1);
+            double striped = run(input, messages, parsers);
+            System.out.printf("%8d %10.0f/sec %10.0f/sec%n", sessions, single, striped);
+        }
+    }
+
+    private static double run(byte[] input, int messages, int parserThreads) throws Exception {
+        var received = new LongAdder();
+        var closed = new CountDownLatch(1);
+        long start = System.nanoTime();
+        var pipe = new RPC.Pipe(new ByteArrayInputStream(input), OutputStream.nullOutputStream(),
+                message -> {
+                    if (((RPC.Event) message).params() != null) received.increment();
+                }, closed::countDown, parserThreads);
+        closed.await();
+        pipe.waitClose(Duration.ofMinutes(1));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (received.sum() != messages) throw new IllegalStateException("Only received " + received.sum());
+        return messages / seconds;
+    }
+
+    /**
+     * Generates Network.dataReceived events with base64 chunks, the most common message during a crawl.
+     */
+    private static byte[] generate(int messages, int sessions) throws IOException {
+        var random = new Random(0);
+        var output = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        for (int i = 0; i < messages; i++) {
+            random.nextBytes(chunk);
+            String message = "{\"method\":\"Network.dataReceived\",\"params\":{\"requestId\":\"" + i +
+                             ".1\",\"timestamp\":" + (i / 1000.0) + ",\"dataLength\":4096,\"encodedDataLength\":0," +
+                             "\"data\":\"" + Base64.getEncoder().encodeToString(chunk) + "\"},\"sessionId\":\"S" +
+                             (i % sessions) + "\"}";
+            output.write(message.getBytes(UTF_8));
+            output.write(0);
+        }
+        return output.toByteArray();
+    }
+
+    interface Network {
+        record DataReceived(String requestId, double timestamp, int dataLength, int encodedDataLength, String data) {
+        }
+    }
+}
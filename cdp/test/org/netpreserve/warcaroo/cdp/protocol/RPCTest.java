@@ -0,0 +1,157 @@
+package org.netpreserve.warcaroo.cdp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RPCTest {
+    @Test
+    void testReadMessage() throws IOException {
+        EventTypes.register(Example.Registered.class);
+
+        var event = (RPC.Event) read("""
+                {"method":"Example.registered","params":{"data":"abc","extra":[1,{"a":2}]},"sessionId":"S1"}""");
+        assertEquals("Example.registered", event.method());
+        assertEquals(new Example.Registered("abc"), event.params());
+        assertEquals("S1", event.sessionId());
+
+        var unhandled = (RPC.Event) read("""
+                {"method":"Example.unregistered","params":{"data":"abc","nested":{"x":[1,2,3]}}}""");
+        assertNull(unhandled.params());
+        assertNull(unhandled.sessionId());
+
+        var paramsFirst = (RPC.Event) read("""
+                {"params":{"data":"xyz"},"method":"Example.registered"}""");
+        assertEquals(new Example.Registered("xyz"), paramsFirst.params());
+
+        var response = (RPC.Response) read("""
+                {"id":42,"result":{"value":1},"sessionId":"S2"}""");
+        assertEquals(42, response.id());
+        assertEquals(1, response.result().get("value").asInt());
+        assertEquals("S2", response.sessionId());
+
+        var error = (RPC.Response) read("""
+                {"id":43,"error":{"code":-32000,"message":"No target"}}""");
+        assertEquals(new RPC.Error(-32000, "No target"), error.error());
+    }
+
+    @Test
+    void testSessionIdHash() {
+        int hash = sessionIdHash("{\"method\":\"A.b\",\"params\":{},\"sessionId\":\"S1\"}");
+        assertNotEquals(0, hash);
+        assertEquals(hash, sessionIdHash("{\"id\":1,\"result\":{\"x\":[1,{}]}, \"sessionId\": \"S1\"}"));
+        assertNotEquals(hash, sessionIdHash("{\"id\":1,\"result\":{},\"sessionId\":\"S2\"}"));
+        assertEquals(0, sessionIdHash("{\"method\":\"Target.attachedToTarget\",\"params\":{\"sessionId\":\"S1\"}}"));
+        assertEquals(0, sessionIdHash("{\"id\":1,\"v\":\"\\\",\\\"sessionId\\\":\\\"S1\",\"result\":{}}"));
+    }
+
+    @Test
+    void testPipeKeepsSessionMessagesInOrder() throws Exception {
+        int sessions = 5;
+        int messagesPerSession = 2000;
+        var input = new ByteArrayOutputStream();
+        for (int i = 0; i < messagesPerSession; i++) {
+            for (int session = 0; session < sessions; session++) {
+                String sessionField = session == 0 ? "" : ",\"sessionId\":\"S" + session + "\"";
+                input.write(("{\"id\":" + i + ",\"result\":{}" + sessionField + "}\0").getBytes(UTF_8));
+            }
+        }
+        var received = new ConcurrentHashMap<String, List<Long>>();
+        var closed = new CountDownLatch(1);
+        var pipe = new RPC.Pipe(new ByteArrayInputStream(input.toByteArray()), OutputStream.nullOutputStream(),
+                message -> received.computeIfAbsent(String.valueOf(message.sessionId()),
+                        key -> Collections.synchronizedList(new ArrayList<>())).add(((RPC.Response) message).id()),
+                closed::countDown, 3);
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        pipe.waitClose(Duration.ofSeconds(10));
+        assertEquals(sessions, received.size());
+        for (var ids : received.values()) {
+            assertEquals(LongStream.range(0, messagesPerSession).boxed().toList(), ids);
+        }
+    }
+
+    @Test
+    void testFindNullByte() {
+        var random = new Random(0);
+        for (int length = 0; length < 40; length++) {
+            byte[] buffer = new byte[length];
+            for (int i = 0; i < length; i++) buffer[i] = (byte) (random.nextInt(255) + 1);
+            assertEquals(-1, RPC.Pipe.findNullByte(buffer, 0, length));
+            for (int zero = 0; zero < length; zero++) {
+                buffer[zero] = 0;
+                for (int from = 0; from <= zero; from++) {
+                    assertEquals(zero, RPC.Pipe.findNullByte(buffer, from, length));
+                }
+                assertEquals(-1, RPC.Pipe.findNullByte(buffer, 0, zero));
+                buffer[zero] = (byte) 0x80; // 0x80 and 0x01 trip up naive versions of the bit trick
+                if (zero > 0) buffer[zero - 1] = 1;
+            }
+        }
+    }
+
+    @Test
+    void testPipeFraming() throws Exception {
+        String big = "x".repeat(700 * 1024); // bigger than the read buffer
+        var input = new ByteArrayOutputStream();
+        for (int i = 0; i < 50; i++) {
+            String value = i == 10 ? big : "v" + i;
+            input.write(("{\"id\":" + i + ",\"result\":{\"value\":\"" + value + "\"}}\0").getBytes(UTF_8));
+        }
+        byte[] bytes = input.toByteArray();
+        // hand out the input in small, unaligned chunks so messages span reads
+        var chunked = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000 + pos % 7));
+            }
+        };
+        var received = Collections.synchronizedList(new ArrayList<RPC.Response>());
+        var closed = new CountDownLatch(1);
+        var output = new ByteArrayOutputStream();
+        var pipe = new RPC.Pipe(chunked, output, message -> received.add((RPC.Response) message),
+                closed::countDown, 1);
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        pipe.waitClose(Duration.ofSeconds(10));
+        assertEquals(50, received.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, received.get(i).id());
+            assertEquals(i == 10 ? big : "v" + i, received.get(i).result().get("value").asText());
+        }
+
+        pipe.send(new RPC.Command(1, "A.b", Map.of("big", big), null));
+        pipe.send(new RPC.Command(2, "A.c", Map.of(), "S1"));
+        assertEquals("{\"id\":1,\"method\":\"A.b\",\"params\":{\"big\":\"" + big + "\"}}\0" +
+                     "{\"id\":2,\"method\":\"A.c\",\"params\":{},\"sessionId\":\"S1\"}\0", output.toString(UTF_8));
+    }
+
+    private static int sessionIdHash(String message) {
+        return RPC.Pipe.sessionIdHash(message.getBytes(UTF_8));
+    }
+
+    private static RPC.ServerMessage read(String json) throws IOException {
+        try (var parser = RPC.JSON.createParser(json)) {
+            return RPC.readMessage(parser);
+        }
+    }
+
+    interface Example {
+        record Registered(String data) {
+        }
+    }
+}
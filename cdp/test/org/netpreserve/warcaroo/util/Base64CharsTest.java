@@ -0,0 +1,40 @@
+package org.netpreserve.warcaroo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Base64CharsTest {
+    @Test
+    void testDecode() {
+        var random = new Random(0);
+        for (int length = 0; length < 100; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertArrayEquals(data, decode(Base64.getEncoder().encodeToString(data)));
+            assertArrayEquals(data, decode(Base64.getEncoder().withoutPadding().encodeToString(data)));
+        }
+    }
+
+    @Test
+    void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> decode("ab$d"));
+        assertThrows(IllegalArgumentException.class, () -> decode("abcde"));
+        assertThrows(IllegalArgumentException.class, () -> decode("abéd"));
+        assertThrows(IllegalArgumentException.class, () -> decode("abcdefgh$bcdefgh"));
+        assertThrows(IllegalArgumentException.class, () -> decode("abcdefg$"));
+        // chars whose low byte is valid base64, in both a full piece and the final one
+        assertThrows(IllegalArgumentException.class, () -> decode("ab\u0141d"));
+        assertThrows(IllegalArgumentException.class, () -> decode("abcd\u0141fghabcd"));
+    }
+
+    private static byte[] decode(String encoded) {
+        var output = new ByteArrayOutputStream();
+        Base64Chars.decode(encoded, new byte[8], new byte[6], (data, length) -> output.write(data, 0, length));
+        return output.toByteArray();
+    }
+}
@@ -20,6 +20,12 @@ export class WarcarooTabulator extends TabulatorFull {
      * @param {import("tabulator-tables").Options} options
      */
     constructor(element, options) {
+        /**
+         * next_cursor values returned by the server keyed by the page they lead to. Cleared whenever the query other
+         * than the page number changes.
+         */
+        const cursors = {key: null, pages: new Map()};
+
         /** @type {import("tabulator-tables").Options} */
         const defaultOptions = {
 
@@ -48,9 +54,24 @@ export class WarcarooTabulator extends TabulatorFull {
                     query.set('sort', params.sort.map(sort => (sort.dir === 'desc' ? '-' : '') + sort.field).join(","));
                 }
                 query.set('limit', params.size);
+                if (url + "?" + query !== cursors.key) {
+                    cursors.key = url + "?" + query;
+                    cursors.pages.clear();
+                }
                 query.set('page', params.page);
+                query.set('approximate', 'true');
+
+                // follow the cursor from the previous page if we have one, so the server needn't skip over rows
+                const after = cursors.pages.get(params.page);
+                if (after != null) query.set('after', after);
                 return url + "?" + query;
             },
+            ajaxResponse: function (url, params, response) {
+                if (response.next_cursor != null) {
+                    cursors.pages.set(params.page + 1, response.next_cursor);
+                }
+                return response;
+            },
             persistenceReaderFunc: fragmentReader,
             persistenceWriterFunc: fragmentWriter,
         };
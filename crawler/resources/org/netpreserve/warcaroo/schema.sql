@@ -51,7 +51,7 @@ create table if not exists frontier
     FOREIGN KEY (domain_id) references domains (id)
 );
 
--- For FrontierDAO.nextUrlForHost()
+-- For FrontierDAO.nextUrlsForHost()
 CREATE INDEX IF NOT EXISTS frontier_host_state_depth_id ON frontier (host_id, state, depth, id);
 
 create table if not exists resources
@@ -79,6 +79,8 @@ create table if not exists resources
     type            TEXT,
     protocol        TEXT,
     transferred     INTEGER          NOT NULL,
+    revisit_of      INTEGER,
+    refers_to_date  INTEGER,
 
     FOREIGN KEY (host_id) REFERENCES hosts (id),
     FOREIGN KEY (domain_id) REFERENCES domains (id)
@@ -86,6 +88,7 @@ create table if not exists resources
 
 CREATE INDEX IF NOT EXISTS resources_url_date ON resources (url, date);
 CREATE INDEX IF NOT EXISTS resources_page_id ON resources (page_id);
+CREATE INDEX IF NOT EXISTS resources_payload_digest ON resources (payload_digest) WHERE revisit_of IS NULL;
 
 create table if not exists pages
 (
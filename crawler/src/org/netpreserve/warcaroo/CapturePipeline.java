@@ -0,0 +1,130 @@
+package org.netpreserve.warcaroo;
+
+import org.netpreserve.warcaroo.cdp.ResourceFetched;
+import org.netpreserve.warcaroo.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves captured subresources on a pool of background threads so the browser session's event thread isn't held up
+ * by WARC writing and database updates.
+ * <p>
+ * At most {@link #CAPACITY} resources may be waiting, each of which holds open a temporary file. Once full,
+ * {@link #submit(long, ResourceFetched)} blocks the caller until there is room which in turn slows down the browser.
+ */
+public class CapturePipeline implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CapturePipeline.class);
+    static final int THREADS = 8;
+    static final int CAPACITY = 256;
+
+    private final Storage storage;
+    private final DatabaseWriter writer;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits = new Semaphore(CAPACITY);
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+
+    public CapturePipeline(Storage storage, DatabaseWriter writer) {
+        this.storage = storage;
+        this.writer = writer;
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("capture"));
+    }
+
+    /**
+     * Queues a resource to be saved, waiting if the pipeline is full. Takes ownership of the resource and closes it
+     * once saved.
+     */
+    public void submit(long pageId, ResourceFetched resource) {
+        try {
+            if (!permits.tryAcquire()) {
+                blocked.increment();
+                permits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted waiting to save {}", resource.url());
+            resource.close();
+            return;
+        }
+        try {
+            executor.execute(new Task(pageId, resource));
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            log.warn("Capture pipeline closed, discarding {}", resource.url());
+            resource.close();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(executor.getQueue().size(), active.get(), CAPACITY, storage.availableWriters(),
+                writer.queueSize(), completed.sum(), failed.sum(), blocked.sum());
+    }
+
+    /**
+     * Saves the resources already queued and stops the threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for queued resources to be saved");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (var runnable : executor.shutdownNow()) {
+            ((Task) runnable).resource.close();
+        }
+    }
+
+    private class Task implements Runnable {
+        final long pageId;
+        final ResourceFetched resource;
+
+        Task(long pageId, ResourceFetched resource) {
+            this.pageId = pageId;
+            this.resource = resource;
+        }
+
+        @Override
+        public void run() {
+            active.incrementAndGet();
+            try {
+                storage.save(pageId, resource, null);
+                completed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.atError().addKeyValue("pageId", pageId).addKeyValue("url", resource.url())
+                        .log("Failed to save resource", e);
+            } finally {
+                active.decrementAndGet();
+                resource.close();
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Queue depths of each stage of the pipeline.
+     *
+     * @param queued           resources waiting for a capture thread
+     * @param active           resources currently being saved
+     * @param capacity         maximum number of resources queued or active before submitters block
+     * @param availableWriters WARC writers not currently in use
+     * @param databaseQueued   operations waiting for the database writer (including those from other sources)
+     * @param completed        resources saved
+     * @param failed           resources that failed to save
+     * @param blocked          submissions that had to wait because the pipeline was full
+     */
+    public record Stats(int queued, int active, int capacity, int availableWriters, int databaseQueued,
+                        long completed, long failed, long blocked) {
+    }
+}
@@ -0,0 +1,97 @@
+package org.netpreserve.warcaroo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.netpreserve.jwarc.WarcDigest;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Collects the CDXJ index lines for a WARC file while it's being written and writes them out sorted when it's
+ * closed.
+ * <p>
+ * Lines are in the pywb format: {@code <surt> <timestamp> <json>}.
+ */
+class CdxjBuffer {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss")
+            .withZone(ZoneOffset.UTC);
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Object mergeLock = new Object();
+
+    private final List<String> lines = new ArrayList<>();
+
+    void add(Url url, Instant date, String mime, int status, WarcDigest digest, String filename, long offset,
+             long length) {
+        var fields = new LinkedHashMap<String, String>();
+        fields.put("url", url.toString());
+        if (mime != null) fields.put("mime", mime);
+        fields.put("status", Integer.toString(status));
+        if (digest != null) fields.put("digest", digest.prefixedBase32());
+        fields.put("length", Long.toString(length));
+        fields.put("offset", Long.toString(offset));
+        fields.put("filename", filename);
+        try {
+            lines.add(url.surt() + " " + TIMESTAMP_FORMAT.format(date) + " " + JSON.writeValueAsString(fields));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    /**
+     * Writes the sorted lines to a file and clears the buffer.
+     */
+    void write(Path file) throws IOException {
+        lines.sort(null);
+        Files.write(file, lines, UTF_8);
+        lines.clear();
+    }
+
+    /**
+     * Merges a sorted CDXJ file into a cumulative sorted index, creating it if necessary.
+     */
+    static void merge(Path source, Path index) throws IOException {
+        synchronized (mergeLock) {
+            if (!Files.exists(index)) {
+                Files.copy(source, index);
+                return;
+            }
+            Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+            try (BufferedReader a = Files.newBufferedReader(index, UTF_8);
+                 BufferedReader b = Files.newBufferedReader(source, UTF_8);
+                 var out = Files.newBufferedWriter(temp, UTF_8)) {
+                String lineA = a.readLine();
+                String lineB = b.readLine();
+                while (lineA != null || lineB != null) {
+                    if (lineB == null || (lineA != null && lineA.compareTo(lineB) <= 0)) {
+                        out.write(lineA);
+                        lineA = a.readLine();
+                    } else {
+                        out.write(lineB);
+                        lineB = b.readLine();
+                    }
+                    out.newLine();
+                }
+            }
+            Files.move(temp, index, REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+    }
+}
@@ -7,9 +7,6 @@ import org.jdbi.v3.core.argument.ArgumentFactory;
 import org.jdbi.v3.core.argument.NullArgument;
 import org.jdbi.v3.core.config.JdbiConfig;
 import org.jdbi.v3.core.mapper.ColumnMapper;
-import org.jdbi.v3.core.statement.ParsedSql;
-import org.jdbi.v3.core.statement.SqlLogger;
-import org.jdbi.v3.core.statement.StatementContext;
 import org.jdbi.v3.sqlobject.CreateSqlObject;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 import org.jdbi.v3.sqlobject.transaction.Transactional;
@@ -18,14 +15,11 @@ import org.netpreserve.warcaroo.cdp.domains.Network;
 import org.netpreserve.warcaroo.db.*;
 import org.netpreserve.warcaroo.util.BareMediaType;
 import org.netpreserve.warcaroo.util.Url;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.sql.*;
-import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
@@ -33,6 +27,8 @@ import java.util.function.Function;
 import static org.jdbi.v3.core.generic.GenericTypes.getErasedType;
 
 public interface Database extends AutoCloseable, Transactional<Database> {
+    int READ_POOL_SIZE = 4;
+
     static Database newDatabaseInMemory() throws IOException {
         return open("jdbc:sqlite::memory:");
     }
@@ -46,6 +42,25 @@ public interface Database extends AutoCloseable, Transactional<Database> {
         config.setJdbcUrl(jdbcUrl);
         config.setConnectionInitSql("PRAGMA synchronous = NORMAL; PRAGMA foreign_keys = ON; PRAGMA busy_timeout = 60000;");
         config.setMaximumPoolSize(1);
+        Database db = create(config);
+        db.init();
+        return db;
+    }
+
+    /**
+     * Opens a pool of read-only connections to an existing database for queries that shouldn't compete with the crawl
+     * for the write connection. As the database is in WAL mode readers don't block the writer or each other.
+     */
+    static Database openReadOnly(Path path) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:sqlite:" + path);
+        config.setPoolName("read-only");
+        config.setConnectionInitSql("PRAGMA query_only = ON; PRAGMA mmap_size = 268435456; PRAGMA busy_timeout = 60000;");
+        config.setMaximumPoolSize(READ_POOL_SIZE);
+        return create(config);
+    }
+
+    private static Database create(HikariConfig config) {
         var dataSource = new HikariDataSource(config);
         var jdbi = Jdbi.create(dataSource);
         jdbi.installPlugin(new SqlObjectPlugin());
@@ -58,24 +73,10 @@ public interface Database extends AutoCloseable, Transactional<Database> {
         jdbi.registerArgument(stringArgument(Url.class, Url::toString));
         jdbi.registerArgument(stringArgument(WarcDigest.class, WarcDigest::prefixedBase32));
         jdbi.getConfig(DataSourceHolder.class).dataSource = dataSource;
-        jdbi.setSqlLogger(new SqlLogger() {
-            private static final Logger log = LoggerFactory.getLogger(Database.class);
-
-            @Override
-            public void logAfterExecution(StatementContext context) {
-                if (context.getExecutionMoment() == null) return;
-                var duration = Duration.between(context.getExecutionMoment(), context.getExecutionMoment());
-                var durationMillis = duration.toMillis();
-                if (durationMillis > 100) {
-                    ParsedSql parsedSql = context.getParsedSql();
-                    String sql = parsedSql != null ? parsedSql.getSql() : "<sql unavailable>";
-                    log.warn("[Slow SQL] {}ms {}", durationMillis, sql);
-                }
-            }
-        });
-        Database db = jdbi.onDemand(Database.class);
-        db.init();
-        return db;
+        var sqlMetrics = new SqlMetrics();
+        jdbi.getConfig(SqlMetricsHolder.class).sqlMetrics = sqlMetrics;
+        jdbi.setSqlLogger(sqlMetrics);
+        return jdbi.onDemand(Database.class);
     }
 
     private static <T> ColumnMapper<T> stringColumnMapper(Function<String,T> constructor) {
@@ -99,7 +100,25 @@ public interface Database extends AutoCloseable, Transactional<Database> {
         // we can't use @SqlScript because we need to use executeAsSeparateStatements() on sqlite
         try (var stream = Objects.requireNonNull(Database.class.getResourceAsStream("schema.sql"), "missing schema.sql")) {
             var schema = new String(stream.readAllBytes());
-            useHandle(handle -> handle.createScript(schema).executeAsSeparateStatements());
+            useHandle(handle -> {
+                // add columns introduced since the database was created
+                var columns = handle.createQuery("SELECT name FROM pragma_table_info('resources')")
+                        .mapTo(String.class).list();
+                if (!columns.isEmpty() && !columns.contains("revisit_of")) {
+                    handle.execute("ALTER TABLE resources ADD COLUMN revisit_of INTEGER");
+                }
+                if (!columns.isEmpty() && !columns.contains("refers_to_date")) {
+                    handle.execute("ALTER TABLE resources ADD COLUMN refers_to_date INTEGER");
+                    handle.execute("""
+                            UPDATE resources SET refers_to_date =
+                                (SELECT original.date FROM resources original WHERE original.id = resources.revisit_of)
+                            WHERE revisit_of > 0""");
+                    // revisits of a prior crawl were marked with revisit_of = 0 and their refers-to date wasn't
+                    // recorded, so use the revisit's own date as an upper bound
+                    handle.execute("UPDATE resources SET revisit_of = NULL, refers_to_date = date WHERE revisit_of = 0");
+                }
+                handle.createScript(schema).executeAsSeparateStatements();
+            });
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -130,6 +149,14 @@ public interface Database extends AutoCloseable, Transactional<Database> {
         return withHandle(handle -> handle.getConfig(DataSourceHolder.class).dataSource);
     }
 
+    /**
+     * Returns the statement metrics of this database's connection pool. This takes a connection from the pool so
+     * callers that read the metrics repeatedly should keep the instance.
+     */
+    default SqlMetrics sqlMetrics() {
+        return withHandle(handle -> handle.getConfig(SqlMetricsHolder.class).sqlMetrics);
+    }
+
     default void close() {
         dataSource().close();
     }
@@ -147,4 +174,18 @@ public interface Database extends AutoCloseable, Transactional<Database> {
             return copy;
         }
     }
+
+    class SqlMetricsHolder implements JdbiConfig<SqlMetricsHolder> {
+        private SqlMetrics sqlMetrics;
+
+        public SqlMetricsHolder() {
+        }
+
+        @Override
+        public SqlMetricsHolder createCopy() {
+            var copy = new SqlMetricsHolder();
+            copy.sqlMetrics = sqlMetrics;
+            return copy;
+        }
+    }
 }
@@ -0,0 +1,219 @@
+package org.netpreserve.warcaroo;
+
+import org.jdbi.v3.core.Handle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies all crawl writes to the database from a single thread.
+ * <p>
+ * Callers submit write operations to a bounded queue and get a future back. The writer thread takes whatever has
+ * queued up (waiting up to {@link #MAX_DELAY_MILLIS} for more, up to {@link #MAX_BATCH_SIZE} operations) and
+ * applies it in a single transaction, so under load many small writes share one commit. Each operation runs in its
+ * own savepoint so a failing operation is rolled back without affecting the rest of the batch. Futures are only
+ * completed once the transaction has been committed.
+ * <p>
+ * Operations must only use the Database they are passed, as the writer holds the connection while they run.
+ */
+public class DatabaseWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseWriter.class);
+    static final int QUEUE_CAPACITY = 4096;
+    static final int MAX_BATCH_SIZE = 256;
+    static final long MAX_DELAY_MILLIS = 2;
+
+    private final Database db;
+    private final BlockingQueue<Operation<?>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+
+    public DatabaseWriter(Database db) {
+        this.db = db;
+        this.thread = Thread.ofPlatform().name("database-writer").daemon().start(this::run);
+    }
+
+    /**
+     * Queues a write operation, blocking if the queue is full.
+     *
+     * @return a future that completes with the operation's result once it has been committed
+     */
+    public <T> CompletableFuture<T> submit(Function<Database, T> function) {
+        if (closed) throw new IllegalStateException("Database writer is closed");
+        if (Thread.currentThread() == thread) {
+            throw new IllegalStateException("Writes must not be submitted from the writer thread");
+        }
+        var operation = new Operation<>(function);
+        try {
+            queue.put(operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            operation.future.completeExceptionally(e);
+        }
+        // the writer thread may have exited after close() between our closed check and the put
+        if (stopped) failPending();
+        return operation.future;
+    }
+
+    /**
+     * Queues a write operation that doesn't return anything.
+     */
+    public CompletableFuture<Void> execute(Consumer<Database> consumer) {
+        return submit(db -> {
+            consumer.accept(db);
+            return null;
+        });
+    }
+
+    /**
+     * Queues a write operation and waits for it to be committed.
+     */
+    public <T> T call(Function<Database, T> function) {
+        try {
+            return submit(function).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Queues a write operation that doesn't return anything and waits for it to be committed.
+     */
+    public void run(Consumer<Database> consumer) {
+        call(db -> {
+            consumer.accept(db);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the number of operations waiting to be applied.
+     */
+    public int queueSize() {
+        return queue.size();
+    }
+
+    private void run() {
+        try {
+            runLoop();
+        } finally {
+            stopped = true;
+            failPending();
+        }
+    }
+
+    private void runLoop() {
+        var batch = new ArrayList<Operation<?>>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                Operation<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) return;
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    if (queue.drainTo(batch, MAX_BATCH_SIZE - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    Operation<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty() && queue.isEmpty()) return;
+            }
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Operation<?>> batch) {
+        try {
+            db.useHandle(handle -> {
+                handle.begin();
+                try {
+                    var dao = handle.attach(Database.class);
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).apply(handle, dao, "op" + i);
+                    }
+                    handle.commit();
+                } catch (Throwable e) {
+                    handle.rollback();
+                    throw e;
+                }
+            });
+        } catch (Throwable e) {
+            log.error("Failed to commit batch of {} database writes", batch.size(), e);
+            for (var operation : batch) operation.fail(e);
+            return;
+        }
+        for (var operation : batch) operation.complete();
+    }
+
+    /**
+     * Fails any operations queued after the writer thread stopped taking them.
+     */
+    private void failPending() {
+        var pending = new ArrayList<Operation<?>>();
+        queue.drainTo(pending);
+        for (var operation : pending) {
+            operation.future.completeExceptionally(new IllegalStateException("Database writer is closed"));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Operation<T> {
+        final Function<Database, T> function;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Throwable error;
+
+        Operation(Function<Database, T> function) {
+            this.function = function;
+        }
+
+        void apply(Handle handle, Database dao, String savepoint) {
+            handle.savepoint(savepoint);
+            try {
+                result = function.apply(dao);
+                handle.releaseSavepoint(savepoint);
+            } catch (RuntimeException | Error e) {
+                handle.rollbackToSavepoint(savepoint);
+                error = e;
+            }
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+
+        void fail(Throwable e) {
+            future.completeExceptionally(error != null ? error : e);
+        }
+    }
+}
@@ -18,15 +18,33 @@ import static org.netpreserve.warcaroo.FrontierUrl.State.OUT_OF_SCOPE;
 public class Frontier {
     private static final Logger log = LoggerFactory.getLogger(Frontier.class);
     private static final PublicSuffixList publicSuffixList = new PublicSuffixListFactory().build();
+    private static final int MAX_IN_LIST = 500;
     private final Database db;
+    private final DatabaseWriter writer;
     private final Predicate<Url> scope;
-    private final Set<Long> lockedHosts = new HashSet<>();
+    private final HostScheduler scheduler;
     private final CrawlConfig crawlConfig;
+    private final SeenUrlFilter seenUrls;
+    private final Statistics statistics;
+    private final HostIdCache hostIds;
 
-    public Frontier(Database db, Predicate<Url> scope, CrawlConfig crawlConfig) {
+    /**
+     * @param db only used for reads, all writes go through writer
+     */
+    public Frontier(Database db, DatabaseWriter writer, Predicate<Url> scope, CrawlConfig crawlConfig,
+                    SeenUrlFilter seenUrls, Statistics statistics, HostIdCache hostIds) {
         this.db = db;
+        this.writer = writer;
         this.scope = scope;
         this.crawlConfig = crawlConfig;
+        this.seenUrls = seenUrls;
+        this.statistics = statistics;
+        this.hostIds = hostIds;
+        this.scheduler = new HostScheduler(db, writer);
+    }
+
+    public SeenUrlFilter seenUrls() {
+        return seenUrls;
     }
 
     public Scope scope() {
@@ -38,61 +56,134 @@ public class Frontier {
     }
 
     public void addUrls(Collection<Url> urls, int depth, Url via) {
-        int novel = 0;
+        // filter and dedupe in memory first so the database only sees each candidate once
+        var candidates = new LinkedHashMap<Url, String>(); // url -> rdomain
+        var maybeSeen = new ArrayList<Url>();
+        var rdomainsByHost = new HashMap<String, String>();
         for (var url : urls) {
             if (!url.isHttp()) continue;
             url = url.withoutFragment();
-            if (!scope.test(url)) continue;
+            if (candidates.containsKey(url) || !scope.test(url)) continue;
+            String rdomain = rdomainsByHost.computeIfAbsent(url.host(), host -> {
+                String domain = publicSuffixList.getRegistrableDomain(host);
+                if (domain == null) {
+                    log.warn("Unable to get domain for {}", host);
+                    domain = host;
+                }
+                return Url.reverseHost(domain);
+            });
+            candidates.put(url, rdomain);
+            if (seenUrls.mightContain(url)) maybeSeen.add(url);
+        }
 
-            String domain = publicSuffixList.getRegistrableDomain(url.host());
-            if (domain == null) {
-                log.warn("Unable to get domain for {}", url);
-                domain = url.host();
-            }
-            String rhost = url.rhost();
-            String rdomain = Url.reverseHost(domain);
-            Instant now = Instant.now();
+        // look up ids in the cache first, the database is only asked for the rest
+        var hostIdMap = new HashMap<String, Long>();
+        var domainIdMap = new HashMap<String, Long>();
+        candidates.forEach((url, rdomain) -> {
+            Long hostId = hostIds.hostId(url.rhost());
+            if (hostId != null) hostIdMap.put(url.rhost(), hostId);
+            Long domainId = hostIds.domainId(rdomain);
+            if (domainId != null) domainIdMap.put(rdomain, domainId);
+        });
 
-            Long id = addUrl(url, depth, via, rhost, rdomain, now);
-            if (id != null) novel++;
+        Collection<AddedUrls> added = candidates.isEmpty() ? List.of() :
+                writer.call(dao -> addUrls(dao, candidates, maybeSeen, hostIdMap, domainIdMap, depth, via,
+                        Instant.now()));
+        // only now that they've been committed
+        hostIds.putHosts(hostIdMap);
+        hostIds.putDomains(domainIdMap);
+        int novel = 0;
+        for (var addedUrls : added) {
+            statistics.urlsAdded(addedUrls.hostId(), addedUrls.domainId(), addedUrls.count());
+            scheduler.wake(addedUrls.hostId());
+            novel += addedUrls.count();
         }
         log.info("Added {} new URLs from {} extracted links", novel, urls.size());
     }
 
-    private Long addUrl(Url url, int depth, Url via, String rhost, String rdomain, Instant now) {
-        return db.inTransaction(dao -> {
-            if (dao.frontier().findUrl(url) != null) return null;
-            long hostId = dao.hosts().insertOrGetId(rhost);
-            long domainId = dao.domains().insertOrGetId(rdomain);
-            Long id = dao.frontier().addUrl0(url, hostId, domainId, depth, via, now, FrontierUrl.State.PENDING);
-            if (id != null) {
-                dao.hosts().incrementPendingAndInitNextVisit(hostId);
-                dao.domains().incrementPending(domainId);
-                dao.progress().incrementPendingAndDiscovered();
-            }
-            return id;
+    /**
+     * Inserts the candidate URLs that aren't already in the frontier table. Only the candidates the seen URL filter
+     * reported as possibly seen are looked up, the rest are known to be new. Ids for hosts and domains missing from
+     * hostIds and domainIds are added to them.
+     *
+     * @return the number of URLs added for each host
+     */
+    private Collection<AddedUrls> addUrls(Database dao, Map<Url, String> candidates, List<Url> maybeSeen,
+                                          Map<String, Long> hostIds, Map<String, Long> domainIds, int depth, Url via,
+                                          Instant now) {
+        for (var chunk : chunks(maybeSeen)) {
+            Set<Url> existing = dao.frontier().findExistingUrls(chunk);
+            existing.forEach(candidates::remove);
+            for (int i = existing.size(); i < chunk.size(); i++) seenUrls.recordFalsePositive();
+        }
+        if (candidates.isEmpty()) return List.of();
+
+        var rhosts = new HashSet<String>();
+        for (var url : candidates.keySet()) rhosts.add(url.rhost());
+        rhosts.removeAll(hostIds.keySet());
+        var rdomains = new HashSet<>(candidates.values());
+        rdomains.removeAll(domainIds.keySet());
+        if (!rhosts.isEmpty()) {
+            dao.hosts().insertIfAbsent(rhosts);
+            for (var chunk : chunks(rhosts)) hostIds.putAll(dao.hosts().findIds(chunk));
+        }
+        if (!rdomains.isEmpty()) {
+            dao.domains().insertIfAbsent(rdomains);
+            for (var chunk : chunks(rdomains)) domainIds.putAll(dao.domains().findIds(chunk));
+        }
+
+        var urlList = new ArrayList<Url>(candidates.size());
+        var hostIdList = new ArrayList<Long>(candidates.size());
+        var domainIdList = new ArrayList<Long>(candidates.size());
+        candidates.forEach((url, rdomain) -> {
+            urlList.add(url);
+            hostIdList.add(hostIds.get(url.rhost()));
+            domainIdList.add(domainIds.get(rdomain));
         });
+        int[] inserted = dao.frontier().addUrls(urlList, hostIdList, domainIdList, depth, via, now,
+                FrontierUrl.State.PENDING);
+
+        var addedByHost = new HashMap<Long, AddedUrls>();
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] == 0) continue;
+            seenUrls.put(urlList.get(i));
+            addedByHost.merge(hostIdList.get(i), new AddedUrls(hostIdList.get(i), domainIdList.get(i), 1),
+                    AddedUrls::plus);
+        }
+        if (!addedByHost.isEmpty()) dao.hosts().initNextVisit(addedByHost.keySet());
+        return addedByHost.values();
+    }
+
+    private record AddedUrls(long hostId, long domainId, int count) {
+        AddedUrls plus(AddedUrls other) {
+            return new AddedUrls(hostId, domainId, count + other.count);
+        }
     }
 
-    public synchronized @Nullable FrontierUrl takeNext() throws CrawlLimitException {
+    /**
+     * Splits a collection into lists small enough to bind as an IN (...) list.
+     */
+    private static <T> List<List<T>> chunks(Collection<T> collection) {
+        var list = new ArrayList<>(collection);
+        var chunks = new ArrayList<List<T>>();
+        for (int i = 0; i < list.size(); i += MAX_IN_LIST) {
+            chunks.add(list.subList(i, Math.min(i + MAX_IN_LIST, list.size())));
+        }
+        return chunks;
+    }
+
+    public @Nullable FrontierUrl takeNext() throws CrawlLimitException {
         while (true) {
             LimitsConfig limits = crawlConfig.limits();
             if (limits != null) {
-                Progress progress = db.progress().current();
-                if (limits.pages() != null && progress.crawled() >= limits.pages()) {
+                if (limits.pages() != null && statistics.crawled() >= limits.pages()) {
                     throw new CrawlLimitException("page limit reached");
-                } else if (limits.bytes() != null && progress.size() >= limits.bytes()) {
+                } else if (limits.bytes() != null && statistics.size() >= limits.bytes()) {
                     throw new CrawlLimitException("size limit reached");
                 }
             }
-            Long hostId = db.hosts().findNextToVisit(Instant.now(), lockedHosts);
-            if (hostId == null) return null;
-            FrontierUrl frontierUrl = db.frontier().nextUrlForHost(hostId);
-            if (frontierUrl == null) {
-                db.hosts().clearNextVisitIfNoPendingUrls(hostId);
-                continue;
-            }
-            lockedHosts.add(hostId);
+            FrontierUrl frontierUrl = scheduler.take(Instant.now());
+            if (frontierUrl == null) return null;
             // re-test scope in case it has changed
             if (!scope.test(frontierUrl.url())) {
                 release(frontierUrl, OUT_OF_SCOPE);
@@ -102,20 +193,14 @@ public class Frontier {
         }
     }
 
-    public synchronized void release(FrontierUrl frontierUrl, FrontierUrl.State newState) {
+    public void release(FrontierUrl frontierUrl, FrontierUrl.State newState) {
         Instant now = Instant.now();
-        db.useTransaction(db -> {
-            db.frontier().updateState(frontierUrl.id(), newState);
-            db.hosts().updateOnFrontierUrlStateChange(frontierUrl.hostId(), frontierUrl.state(), newState, now, now.plusMillis(crawlConfig.delay()));
-            db.domains().updateMetricsOnFrontierUrlStateChange(frontierUrl.domainId(), frontierUrl.state(), newState);
-            if (newState == FrontierUrl.State.CRAWLED) {
-                db.progress().decrementPendingAndIncrementCrawled();
-            } else if (newState == FrontierUrl.State.FAILED) {
-                db.progress().decrementPendingAndIncrementFailed();
-            } else if (newState != FrontierUrl.State.PENDING) {
-                db.progress().decrementPending();
-            }
+        Instant nextVisit = now.plusMillis(crawlConfig.delay());
+        writer.run(dao -> {
+            dao.frontier().updateState(frontierUrl.id(), newState);
+            dao.hosts().updateNextVisit(frontierUrl.hostId(), now, nextVisit);
         });
-        lockedHosts.remove(frontierUrl.hostId());
+        statistics.urlStateChanged(frontierUrl.hostId(), frontierUrl.domainId(), frontierUrl.state(), newState);
+        scheduler.release(frontierUrl.hostId(), nextVisit);
     }
 }
@@ -0,0 +1,144 @@
+package org.netpreserve.warcaroo;
+
+import org.netpreserve.jwarc.WarcRecord;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes WARC records each compressed as a single gzip member.
+ * <p>
+ * Records larger than {@link #BLOCK_SIZE} are split into blocks which are deflated in parallel on the common
+ * fork-join pool, in the same way as pigz. Each block is primed with the last 32 KiB of the previous block and ends on
+ * a sync flush so the blocks concatenate into one ordinary deflate stream and record offsets are unaffected.
+ */
+class GzipWarcWriter implements WarcRotator.Writer {
+    static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int WINDOW_SIZE = 32 * 1024;
+    private static final byte[] TRAILER = "\r\n\r\n".getBytes(US_ASCII);
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final FileChannel channel;
+    private final ForkJoinPool pool;
+    private final int maxBlocksInFlight;
+
+    GzipWarcWriter(FileChannel channel) {
+        this(channel, ForkJoinPool.commonPool());
+    }
+
+    GzipWarcWriter(FileChannel channel, ForkJoinPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.maxBlocksInFlight = Math.max(2, pool.getParallelism() * 2);
+    }
+
+    @Override
+    public void write(WarcRecord record) throws IOException {
+        var crc = new CRC32();
+        long length = 0;
+        var inFlight = new ArrayDeque<Future<byte[]>>();
+        write(GZIP_HEADER);
+        try (var input = new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(record.serializeHeader()),
+                record.body().stream(),
+                new ByteArrayInputStream(TRAILER))))) {
+            byte[] previous = null;
+            byte[] block = readBlock(input);
+            while (true) {
+                byte[] next = block.length < BLOCK_SIZE ? null : readBlock(input);
+                boolean last = next == null || next.length == 0;
+                crc.update(block);
+                length += block.length;
+
+                byte[] dictionary = previous == null ? null
+                        : Arrays.copyOfRange(previous, previous.length - WINDOW_SIZE, previous.length);
+                if (previous == null && last) {
+                    // small record, not worth handing off
+                    write(deflate(block, null, true));
+                    break;
+                }
+                byte[] data = block;
+                inFlight.add(pool.submit(() -> deflate(data, dictionary, last)));
+                if (inFlight.size() >= maxBlocksInFlight) write(await(inFlight.poll()));
+                if (last) break;
+                previous = block;
+                block = next;
+            }
+            while (!inFlight.isEmpty()) write(await(inFlight.poll()));
+        } finally {
+            inFlight.forEach(future -> future.cancel(false));
+        }
+        var trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue())
+                .putInt((int) length);
+        write(trailer.array());
+    }
+
+    private static byte[] readBlock(InputStream input) throws IOException {
+        return input.readNBytes(BLOCK_SIZE);
+    }
+
+    static byte[] deflate(byte[] data, byte[] dictionary, boolean last) {
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) deflater.setDictionary(dictionary);
+            deflater.setInput(data);
+            var output = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[65536];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,84 @@
+package org.netpreserve.warcaroo;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of host and domain ids so the crawl doesn't have to upsert the same hosts and domains over
+ * and over.
+ * <p>
+ * Ids must only be added once the transaction that inserted them has committed, otherwise a rolled back id could be
+ * reused by SQLite for a different row.
+ */
+public class HostIdCache {
+    static final int DEFAULT_CAPACITY = 65536;
+
+    private final Lru hosts;
+    private final Lru domains;
+
+    public HostIdCache(int capacity) {
+        this.hosts = new Lru(capacity);
+        this.domains = new Lru(capacity);
+    }
+
+    /**
+     * Creates a cache warmed with the most recently added hosts and domains.
+     */
+    public static HostIdCache load(Database db) {
+        var cache = new HostIdCache(DEFAULT_CAPACITY);
+        cache.putHosts(db.hosts().findRecentIds(DEFAULT_CAPACITY));
+        cache.putDomains(db.domains().findRecentIds(DEFAULT_CAPACITY));
+        return cache;
+    }
+
+    public @Nullable Long hostId(String rhost) {
+        return hosts.get(rhost);
+    }
+
+    public @Nullable Long domainId(String rdomain) {
+        return domains.get(rdomain);
+    }
+
+    public void putHost(String rhost, long id) {
+        hosts.put(rhost, id);
+    }
+
+    public void putDomain(String rdomain, long id) {
+        domains.put(rdomain, id);
+    }
+
+    public void putHosts(Map<String, Long> ids) {
+        hosts.putAll(ids);
+    }
+
+    public void putDomains(Map<String, Long> ids) {
+        domains.putAll(ids);
+    }
+
+    private static class Lru {
+        private final LinkedHashMap<String, Long> map;
+
+        Lru(int capacity) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized Long get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, long id) {
+            map.put(key, id);
+        }
+
+        synchronized void putAll(Map<String, Long> ids) {
+            map.putAll(ids);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.netpreserve.warcaroo;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which host to visit next.
+ * <p>
+ * Hosts with pending URLs are kept in memory in a queue ordered by the time they are next allowed to be visited,
+ * along with a small batch of URLs prefetched from the frontier table. Picking the next URL is normally just a heap
+ * operation; the database is only consulted when a host's batch runs out. The hosts table remains the durable record
+ * and is used to rebuild the queue on startup.
+ * <p>
+ * A host is removed from the queue while one of its URLs is being crawled and is only put back once
+ * {@link #release(long, Instant)} is called, so at most one URL per host is in progress at a time.
+ */
+class HostScheduler {
+    static final int BATCH_SIZE = 16;
+    private final Database db;
+    private final DatabaseWriter writer;
+    private final Lock lock = new ReentrantLock();
+    private final PriorityQueue<HostQueue> readyQueue = new PriorityQueue<>();
+    private final Map<Long, HostQueue> hosts = new HashMap<>();
+
+    HostScheduler(Database db, DatabaseWriter writer) {
+        this.db = db;
+        this.writer = writer;
+        db.hosts().findScheduled().forEach((hostId, nextVisit) -> {
+            var host = new HostQueue(hostId, nextVisit.toEpochMilli());
+            host.state = HostQueue.State.QUEUED;
+            hosts.put(hostId, host);
+            readyQueue.add(host);
+        });
+    }
+
+    /**
+     * Notifies the scheduler that new pending URLs have been added for a host.
+     */
+    void wake(long hostId) {
+        lock.lock();
+        try {
+            var host = hosts.computeIfAbsent(hostId, id -> new HostQueue(id, 0));
+            switch (host.state) {
+                case IDLE -> {
+                    host.state = HostQueue.State.QUEUED;
+                    readyQueue.add(host);
+                }
+                case ACTIVE -> host.dirty = true;
+                case QUEUED -> {
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next URL from the first host whose next visit time has passed. The host stays locked until
+     * {@link #release(long, Instant)} is called.
+     *
+     * @return the next URL or null if no host is ready to be visited
+     */
+    @Nullable
+    FrontierUrl take(Instant now) {
+        while (true) {
+            HostQueue host;
+            lock.lock();
+            try {
+                host = readyQueue.peek();
+                if (host == null || host.nextVisit > now.toEpochMilli()) return null;
+                readyQueue.poll();
+                host.state = HostQueue.State.ACTIVE;
+                host.dirty = false;
+            } finally {
+                lock.unlock();
+            }
+
+            // the batch is only touched by the thread that holds the host in the ACTIVE state
+            if (host.batch.isEmpty()) {
+                host.batch.addAll(db.frontier().nextUrlsForHost(host.id, BATCH_SIZE));
+            }
+            FrontierUrl frontierUrl = host.batch.poll();
+            if (frontierUrl != null) return frontierUrl;
+
+            writer.run(dao -> dao.hosts().clearNextVisitIfNoPendingUrls(host.id));
+            lock.lock();
+            try {
+                if (host.dirty) {
+                    // URLs were added while we were looking, try again
+                    host.state = HostQueue.State.QUEUED;
+                    readyQueue.add(host);
+                } else {
+                    host.state = HostQueue.State.IDLE;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Unlocks a host previously returned by {@link #take(Instant)} and schedules its next visit.
+     */
+    void release(long hostId, Instant nextVisit) {
+        lock.lock();
+        try {
+            var host = hosts.computeIfAbsent(hostId, id -> new HostQueue(id, 0));
+            if (host.state == HostQueue.State.QUEUED) readyQueue.remove(host); // must not mutate while in the heap
+            host.nextVisit = nextVisit.toEpochMilli();
+            host.state = HostQueue.State.QUEUED;
+            readyQueue.add(host);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class HostQueue implements Comparable<HostQueue> {
+        final long id;
+        final ArrayDeque<FrontierUrl> batch = new ArrayDeque<>(BATCH_SIZE);
+        long nextVisit;
+        State state = State.IDLE;
+        boolean dirty;
+
+        HostQueue(long id, long nextVisit) {
+            this.id = id;
+            this.nextVisit = nextVisit;
+        }
+
+        @Override
+        public int compareTo(HostQueue o) {
+            int cmp = Long.compare(nextVisit, o.nextVisit);
+            if (cmp != 0) return cmp;
+            return Long.compare(id, o.id);
+        }
+
+        enum State {
+            /** Not known to have pending URLs. */
+            IDLE,
+            /** Waiting in the ready queue. */
+            QUEUED,
+            /** Taken by a worker and locked until released. */
+            ACTIVE
+        }
+    }
+}
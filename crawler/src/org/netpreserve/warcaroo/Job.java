@@ -1,5 +1,6 @@
 package org.netpreserve.warcaroo;
 
+import org.netpreserve.warcaroo.cdp.ResourceRecorder;
 import org.netpreserve.warcaroo.config.JobConfig;
 import org.netpreserve.warcaroo.util.Url;
 import org.netpreserve.warcaroo.webapp.OpenAPI.Doc;
@@ -19,8 +20,22 @@ import org.slf4j.Logger;
 public class Job implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(Job.class);
     public final Database db;
+    /**
+     * Read-only connections for the web UI, the API and the crawl's own lookups, so that reads don't wait for the
+     * single write connection while the writer holds it for a batch.
+     */
+    public final Database readOnlyDb;
+    /**
+     * Statement metrics of the two pools, kept so that reading them doesn't wait for a connection.
+     */
+    public final SqlMetrics sqlMetrics;
+    public final SqlMetrics readOnlySqlMetrics;
     private final Frontier frontier;
+    private final SeenUrlFilter seenUrlFilter;
+    private final Statistics statistics;
+    private final DatabaseWriter writer;
     private final Storage storage;
+    private final CapturePipeline capturePipeline;
     private final HttpClient httpClient;
     private final RobotsTxtChecker robotsTxtChecker;
     private final List<Worker> workers = new ArrayList<>();
@@ -29,6 +44,8 @@ public class Job implements AutoCloseable {
     private volatile State state = State.STOPPED;
     private final Lock startStopLock = new ReentrantLock();
     private final ProgressTracker progressTracker;
+    private final long bodyMemoryLimit;
+    private final Path bodyTempDir;
 
     public List<BrowserManager> browserManagers() {
         startStopLock.lock();
@@ -43,10 +60,18 @@ public class Job implements AutoCloseable {
         return progressTracker.current();
     }
 
+    public CapturePipeline capturePipeline() {
+        return capturePipeline;
+    }
+
     public Frontier frontier() {
         return frontier;
     }
 
+    public Storage storage() {
+        return storage;
+    }
+
     public enum State {
         STOPPED, STARTING, RUNNING, STOPPING
     }
@@ -54,12 +79,26 @@ public class Job implements AutoCloseable {
     public Job(Path dataPath, JobConfig config) throws IOException {
         this.config = config;
         this.db = Database.open(dataPath.resolve("db.sqlite3"));
+        this.readOnlyDb = Database.openReadOnly(dataPath.resolve("db.sqlite3"));
+        this.sqlMetrics = db.sqlMetrics();
+        this.readOnlySqlMetrics = readOnlyDb.sqlMetrics();
         this.httpClient = HttpClient.newHttpClient();
-        this.frontier = new Frontier(db, new Scope(config.seeds(), config.scope(), config.scopeType()), config.crawl());
-        this.storage = new Storage(dataPath, db, config.storage());
-        this.robotsTxtChecker = new RobotsTxtChecker(db.robotsTxt(), httpClient, storage,
+        this.writer = new DatabaseWriter(db);
+        this.statistics = new Statistics(db, writer);
+        this.seenUrlFilter = SeenUrlFilter.open(db, dataPath.resolve("seen-urls.bloom"), config.crawl().seenUrlFilter());
+        var hostIds = HostIdCache.load(db);
+        this.frontier = new Frontier(readOnlyDb, writer, new Scope(config.seeds(), config.scope(), config.scopeType()), config.crawl(),
+                seenUrlFilter, statistics, hostIds);
+        this.storage = new Storage(dataPath, readOnlyDb, writer, config.storage(), statistics, hostIds);
+        this.capturePipeline = new CapturePipeline(storage, writer);
+        this.robotsTxtChecker = new RobotsTxtChecker(readOnlyDb.robotsTxt(), writer, httpClient, storage,
                 List.of("nla.gov.au_bot", "warcaroo"), config.crawl().userAgent());
-        progressTracker = new ProgressTracker(db.progress());
+        progressTracker = new ProgressTracker(readOnlyDb.progress(), writer, statistics);
+        var storageConfig = config.storage();
+        this.bodyMemoryLimit = storageConfig != null && storageConfig.memoryBufferSize() != null
+                ? storageConfig.memoryBufferSize() : ResourceRecorder.DEFAULT_MEMORY_BUFFER_LIMIT;
+        this.bodyTempDir = dataPath.resolve(storageConfig != null && storageConfig.tempDir() != null
+                ? storageConfig.tempDir() : "downloads");
     }
 
     public void close() {
@@ -67,6 +106,7 @@ public class Job implements AutoCloseable {
         try {
             state = State.STOPPING;
             closeAllBrowsers();
+            capturePipeline.close();
             try {
                 storage.close();
             } catch (Exception e) {
@@ -79,6 +119,18 @@ public class Job implements AutoCloseable {
             }
             progressTracker.close();
             try {
+                statistics.close();
+            } catch (Exception e) {
+                log.error("Failed to flush statistics", e);
+            }
+            writer.close();
+            try {
+                seenUrlFilter.close();
+            } catch (Exception e) {
+                log.error("Failed to close seen URL filter", e);
+            }
+            try {
+                readOnlyDb.close();
                 db.close();
             } catch (Exception e) {
                 log.error("Failed to close database", e);
@@ -100,7 +152,8 @@ public class Job implements AutoCloseable {
                 BrowserManager browserManager = new BrowserManager(browserConfig);
                 browserManagers.add(browserManager);
                 for (int i = 0; i < browserConfig.workers(); i++) {
-                    workers.add(new Worker(browserConfig.id() + "-" + i, browserManager, frontier, storage, db, robotsTxtChecker, this));
+                    workers.add(new Worker(browserConfig.id() + "-" + i, browserManager, frontier, storage,
+                            capturePipeline, writer, statistics, robotsTxtChecker, this));
                 }
             }
             for (Worker worker : workers) {
@@ -157,6 +210,20 @@ public class Job implements AutoCloseable {
         return config;
     }
 
+    /**
+     * Response bodies up to this size are buffered in memory while being recorded.
+     */
+    public long bodyMemoryLimit() {
+        return bodyMemoryLimit;
+    }
+
+    /**
+     * Directory for response bodies too large to buffer in memory.
+     */
+    public Path bodyTempDir() {
+        return bodyTempDir;
+    }
+
     public State state() {
         return state;
     }
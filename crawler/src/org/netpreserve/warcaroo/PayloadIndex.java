@@ -0,0 +1,70 @@
+package org.netpreserve.warcaroo;
+
+import org.jetbrains.annotations.Nullable;
+import org.netpreserve.jwarc.WarcDigest;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Finds previously stored payloads by digest so that duplicates can be written as revisit records.
+ * <p>
+ * Recently stored payloads are cached in memory, anything else is looked up via the payload_digest index of the
+ * resources table.
+ */
+public class PayloadIndex {
+    static final int DEFAULT_CAPACITY = 100_000;
+
+    private final Database db;
+    private final LinkedHashMap<String, Original> cache;
+
+    public PayloadIndex(Database db, int capacity) {
+        this.db = db;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Original> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public @Nullable Original find(WarcDigest digest, long payloadSize) {
+        String key = digest.prefixedBase32();
+        Original original;
+        synchronized (cache) {
+            original = cache.get(key);
+        }
+        if (original != null) return original.payloadSize == payloadSize ? original : null;
+
+        var resource = db.resources().findOriginalByPayload(key, payloadSize);
+        if (resource == null) return null;
+        original = Original.of(resource);
+        synchronized (cache) {
+            cache.put(key, original);
+        }
+        return original;
+    }
+
+    /**
+     * Adds a newly stored resource. Must only be called once the resource has been committed to the database.
+     */
+    public void add(Resource resource) {
+        if (resource.payloadDigest() == null || resource.isRevisit()) return;
+        synchronized (cache) {
+            cache.putIfAbsent(resource.payloadDigest().prefixedBase32(), Original.of(resource));
+        }
+    }
+
+    /**
+     * The stored copy of a payload that revisit records refer to.
+     */
+    public record Original(long id, UUID responseUuid, Url url, Instant date, long payloadSize) {
+        static Original of(Resource resource) {
+            return new Original(resource.id(), resource.responseUuid(), resource.url(), resource.date(),
+                    resource.payloadSize());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.netpreserve.warcaroo;
+
+import org.netpreserve.jwarc.WarcRecord;
+import org.netpreserve.warcaroo.cdp.BodyBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes uncompressed WARC records.
+ * <p>
+ * Headers are written from a reused direct buffer and bodies held in a file are copied with
+ * {@link FileChannel#transferTo} so large responses never pass through the Java heap.
+ */
+class PlainWarcWriter implements WarcRotator.Writer {
+    private static final byte[] TRAILER = "\r\n\r\n".getBytes(US_ASCII);
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+
+    PlainWarcWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(WarcRecord record) throws IOException {
+        write(record.serializeHeader());
+        copy(record.body());
+        write(TRAILER);
+    }
+
+    @Override
+    public void write(WarcRecord record, byte[] blockHeader, SeekableByteChannel blockBody) throws IOException {
+        write(record.serializeHeader());
+        write(blockHeader);
+        long size = blockBody.size();
+        if (blockBody instanceof FileChannel || blockBody instanceof BodyBuffer) {
+            for (long position = 0; position < size; ) {
+                long n = blockBody instanceof FileChannel fileChannel
+                        ? fileChannel.transferTo(position, size - position, channel)
+                        : ((BodyBuffer) blockBody).transferTo(position, size - position, channel);
+                if (n <= 0) throw new IOException("Body ended early at " + position + " of " + size + " bytes");
+                position += n;
+            }
+        } else {
+            blockBody.position(0);
+            copy(blockBody);
+        }
+        write(TRAILER);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            int length = Math.min(buffer.capacity(), bytes.length - offset);
+            buffer.clear().put(bytes, offset, length).flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            offset += length;
+        }
+    }
+
+    private void copy(ReadableByteChannel source) throws IOException {
+        buffer.clear();
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,340 @@
+package org.netpreserve.warcaroo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.Nullable;
+import org.netpreserve.jwarc.WarcDigest;
+import org.netpreserve.warcaroo.util.Url;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Lookup table of the URL and payload digest pairs archived by previous crawls, so a recrawl can write revisit records
+ * for payloads that haven't changed.
+ * <p>
+ * The table is built from CDXJ or CDX indexes or a previous job's db.sqlite3 into a file of fixed size entries sorted
+ * by (URL hash, SHA-1 digest) which is memory-mapped and binary searched. Each entry is 32 bytes: a 64-bit hash of the
+ * URL, the first 128 bits of the SHA-1 payload digest and the capture time in epoch seconds. Where a URL and digest
+ * were captured more than once the earliest capture is kept. The header records a hash of the source paths so that a
+ * table can be rebuilt when the configured sources change.
+ */
+public class PriorCaptureIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PriorCaptureIndex.class);
+    private static final long MAGIC = 0x7761726364656470L; // "warcdedp"
+    private static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 32;
+    private static final int SEGMENT_SHIFT = 25; // 1 GiB of entries per mapping
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final byte[] SQLITE_MAGIC = "SQLite format 3\0".getBytes(US_ASCII);
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long count;
+    private final long sourcesHash;
+
+    private PriorCaptureIndex(FileChannel channel, MappedByteBuffer[] segments, long count, long sourcesHash) {
+        this.channel = channel;
+        this.segments = segments;
+        this.count = count;
+        this.sourcesHash = sourcesHash;
+    }
+
+    /**
+     * Opens a table previously written by {@link #build}.
+     */
+    public static PriorCaptureIndex open(Path path) throws IOException {
+        var channel = FileChannel.open(path, READ);
+        try {
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            int version = header.getInt(8);
+            if (header.getLong(0) != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a prior capture index: " + path);
+            }
+            long count = header.getLong(12);
+            long sourcesHash = version >= 2 ? header.getLong(20) : 0;
+            if (channel.size() < HEADER_SIZE + count * ENTRY_SIZE) throw new IOException("Truncated: " + path);
+            var segments = new MappedByteBuffer[(int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long entries = Math.min(count - first, 1L << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE,
+                        entries * ENTRY_SIZE);
+            }
+            return new PriorCaptureIndex(channel, segments, count, sourcesHash);
+        } catch (Throwable e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the date of the earliest prior capture of the URL with the same payload, or null if there wasn't one.
+     */
+    public @Nullable Instant find(Url url, WarcDigest digest) {
+        if (!digest.algorithm().equalsIgnoreCase("sha1") && !digest.algorithm().equalsIgnoreCase("sha-1")) {
+            return null;
+        }
+        byte[] sha1 = digest.bytes();
+        if (sha1.length != 20) return null;
+        var key = ByteBuffer.wrap(sha1);
+        long urlHash = urlHash(url.toString());
+        long digestHi = key.getLong(0);
+        long digestLo = key.getLong(8);
+
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            var segment = segments[(int) (mid >>> SEGMENT_SHIFT)];
+            int offset = (int) (mid & SEGMENT_MASK) * ENTRY_SIZE;
+            int cmp = Long.compareUnsigned(segment.getLong(offset), urlHash);
+            if (cmp == 0) cmp = Long.compareUnsigned(segment.getLong(offset + 8), digestHi);
+            if (cmp == 0) cmp = Long.compareUnsigned(segment.getLong(offset + 16), digestLo);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return Instant.ofEpochSecond(segment.getLong(offset + 24));
+            }
+        }
+        return null;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Returns true if the table was built from exactly the given sources, in any order.
+     */
+    public boolean isBuiltFrom(List<Path> sources) {
+        return sourcesHash == sourcesHash(sources);
+    }
+
+    private static long sourcesHash(List<Path> sources) {
+        var paths = new ArrayList<String>();
+        for (Path source : sources) paths.add(source.toAbsolutePath().normalize().toString());
+        paths.sort(null);
+        return SeenUrlFilter.mix(SeenUrlFilter.hash(String.join("\n", paths)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns true if the file is a table written by {@link #build}.
+     */
+    static boolean isIndex(Path path) throws IOException {
+        try (var input = Files.newInputStream(path)) {
+            var header = ByteBuffer.wrap(input.readNBytes(Long.BYTES));
+            return header.remaining() == Long.BYTES && header.getLong() == MAGIC;
+        }
+    }
+
+    /**
+     * Builds a table from CDXJ, CDX and db.sqlite3 files (and previously built tables), replacing the output file.
+     */
+    public static long build(List<Path> sources, Path output) throws IOException {
+        long start = System.nanoTime();
+        var entries = new ArrayList<Entry>();
+        for (Path source : sources) {
+            int before = entries.size();
+            read(source, entries::add);
+            log.info("Read {} prior captures from {}", entries.size() - before, source);
+        }
+
+        var sorted = entries.toArray(new Entry[0]);
+        entries = null;
+        Arrays.parallelSort(sorted);
+
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        long count = 0;
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+            out.write(new byte[HEADER_SIZE]);
+            Entry previous = null;
+            for (Entry entry : sorted) {
+                // sorted by date within the same key so the first is the earliest
+                if (previous != null && previous.sameKey(entry)) continue;
+                out.writeLong(entry.urlHash);
+                out.writeLong(entry.digestHi);
+                out.writeLong(entry.digestLo);
+                out.writeLong(entry.date);
+                previous = entry;
+                count++;
+            }
+        }
+        try (var channel = FileChannel.open(temp, READ, WRITE)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).putInt(VERSION).putLong(count)
+                    .putLong(sourcesHash(sources)).clear();
+            channel.write(header, 0);
+            channel.force(false);
+        }
+        Files.move(temp, output, REPLACE_EXISTING, ATOMIC_MOVE);
+        log.info("Built prior capture index {} with {} entries in {}ms", output, count,
+                (System.nanoTime() - start) / 1_000_000);
+        return count;
+    }
+
+    private static void read(Path source, Consumer<Entry> sink) throws IOException {
+        byte[] magic;
+        try (InputStream input = Files.newInputStream(source)) {
+            magic = input.readNBytes(SQLITE_MAGIC.length);
+        }
+        if (Arrays.equals(magic, SQLITE_MAGIC)) {
+            readDatabase(source, sink);
+        } else if (magic.length >= Long.BYTES && ByteBuffer.wrap(magic).getLong() == MAGIC) {
+            readIndex(source, sink);
+        } else {
+            readCdx(source, sink);
+        }
+    }
+
+    private static void readIndex(Path source, Consumer<Entry> sink) throws IOException {
+        try (var index = open(source)) {
+            for (long i = 0; i < index.count; i++) {
+                var segment = index.segments[(int) (i >>> SEGMENT_SHIFT)];
+                int offset = (int) (i & SEGMENT_MASK) * ENTRY_SIZE;
+                sink.accept(new Entry(segment.getLong(offset), segment.getLong(offset + 8),
+                        segment.getLong(offset + 16), segment.getLong(offset + 24)));
+            }
+        }
+    }
+
+    private static void readDatabase(Path source, Consumer<Entry> sink) {
+        var db = Database.openReadOnly(source);
+        try {
+            db.useHandle(handle -> handle.createQuery("""
+                            SELECT url, payload_digest, date FROM resources
+                            WHERE payload_digest IS NOT NULL""")
+                    .map((rs, ctx) -> Entry.of(rs.getString(1), rs.getString(2),
+                            rs.getTimestamp(3).toInstant().getEpochSecond()))
+                    .forEach(entry -> {
+                        if (entry != null) sink.accept(entry);
+                    }));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Reads pywb style CDXJ ({@code surt timestamp {json}}) or space separated CDX. CDX files are assumed to be in the
+     * common "N b a m s k r M S V g" layout unless they have a header line saying otherwise.
+     */
+    private static void readCdx(Path source, Consumer<Entry> sink) throws IOException {
+        int urlField = 2;
+        int digestField = 5;
+        try (var reader = Files.newBufferedReader(source, UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(" CDX ")) {
+                    String[] letters = line.substring(5).trim().split(" ");
+                    urlField = Arrays.asList(letters).indexOf("a");
+                    digestField = Arrays.asList(letters).indexOf("k");
+                    if (urlField < 0 || digestField < 0) {
+                        throw new IOException("CDX header is missing the a or k field: " + source);
+                    }
+                    continue;
+                }
+                Entry entry;
+                int json = line.indexOf(" {");
+                if (json >= 0) {
+                    String[] fields = line.substring(0, json).split(" ");
+                    if (fields.length < 2) continue;
+                    JsonNode node = JSON.readTree(line.substring(json + 1));
+                    entry = Entry.of(node.path("url").asText(null), node.path("digest").asText(null),
+                            parseTimestamp(fields[1]));
+                } else {
+                    String[] fields = line.split(" ");
+                    if (fields.length <= Math.max(urlField, digestField)) continue;
+                    entry = Entry.of(fields[urlField], fields[digestField], parseTimestamp(fields[1]));
+                }
+                if (entry != null) sink.accept(entry);
+            }
+        }
+    }
+
+    private static long parseTimestamp(String timestamp) {
+        if (timestamp.length() < 14) timestamp += "19700101000000".substring(timestamp.length());
+        return LocalDateTime.parse(timestamp.substring(0, 14), TIMESTAMP_FORMAT).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static long urlHash(String url) {
+        return SeenUrlFilter.mix(SeenUrlFilter.hash(url));
+    }
+
+    private record Entry(long urlHash, long digestHi, long digestLo, long date) implements Comparable<Entry> {
+        static @Nullable Entry of(String url, String digest, long date) {
+            if (url == null || digest == null) return null;
+            if (digest.regionMatches(true, 0, "sha1:", 0, 5)) {
+                digest = digest.substring(5);
+            } else if (digest.indexOf(':') >= 0) {
+                return null;
+            }
+            if (digest.length() != 32) return null; // base32 encoded SHA-1
+            byte[] bytes;
+            try {
+                bytes = new WarcDigest("sha1", digest.toUpperCase()).bytes();
+            } catch (RuntimeException e) {
+                return null;
+            }
+            if (bytes.length != 20) return null;
+            var buffer = ByteBuffer.wrap(bytes);
+            return new Entry(PriorCaptureIndex.urlHash(url), buffer.getLong(0), buffer.getLong(8), date);
+        }
+
+        boolean sameKey(Entry other) {
+            return urlHash == other.urlHash && digestHi == other.digestHi && digestLo == other.digestLo;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int cmp = Long.compareUnsigned(urlHash, other.urlHash);
+            if (cmp == 0) cmp = Long.compareUnsigned(digestHi, other.digestHi);
+            if (cmp == 0) cmp = Long.compareUnsigned(digestLo, other.digestLo);
+            if (cmp == 0) cmp = Long.compare(date, other.date);
+            return cmp;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PriorCaptureIndex OUTPUT SOURCE...");
+            System.err.println("Builds a deduplication table from CDXJ, CDX or db.sqlite3 files of previous crawls.");
+            System.exit(1);
+        }
+        var sources = new ArrayList<Path>();
+        for (int i = 1; i < args.length; i++) sources.add(Path.of(args[i]));
+        build(sources, Path.of(args[0]));
+    }
+}
@@ -14,13 +14,20 @@ import java.util.concurrent.TimeUnit;
  */
 public class ProgressTracker implements AutoCloseable {
     private final ProgressDAO dao;
+    private final DatabaseWriter writer;
+    private final Statistics statistics;
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
     private ScheduledFuture<?> snapshotTask;
     private volatile Instant sessionStartTime;
     private static final long snapshotIntervalMillis = 60000;
 
-    public ProgressTracker(ProgressDAO dao) {
+    /**
+     * @param dao only used for reads, updates go through writer
+     */
+    public ProgressTracker(ProgressDAO dao, DatabaseWriter writer, Statistics statistics) {
         this.dao = dao;
+        this.writer = writer;
+        this.statistics = statistics;
         recoverLostRuntime();
     }
 
@@ -33,7 +40,7 @@ public class ProgressTracker implements AutoCloseable {
         long lastRuntime = dao.lastRuntime();
         long currentRuntime = dao.totalRuntime();
         if (lastRuntime > currentRuntime) {
-            dao.addSessionRuntime(lastRuntime - currentRuntime);
+            writer.run(db -> db.progress().addSessionRuntime(lastRuntime - currentRuntime));
         }
     }
 
@@ -48,14 +55,18 @@ public class ProgressTracker implements AutoCloseable {
         if (sessionStartTime == null) return;
         snapshotTask.cancel(false);
         snapshotTask = null;
-        dao.addSessionRuntime(Duration.between(sessionStartTime, Instant.now()).toMillis());
+        long sessionRuntime = Duration.between(sessionStartTime, Instant.now()).toMillis();
+        // waits for the commit so that the next session's initial delay sees the new total
+        writer.run(db -> db.progress().addSessionRuntime(sessionRuntime));
         sessionStartTime = null;
     }
 
     private synchronized void snapshot() {
         if (sessionStartTime == null) return;
         Instant now = Instant.now();
-        dao.createSnapshot(now, Duration.between(sessionStartTime, now).toMillis());
+        statistics.flush(); // the snapshot is copied from the progress row
+        long sessionRuntime = Duration.between(sessionStartTime, now).toMillis();
+        writer.execute(db -> db.progress().createSnapshot(now, sessionRuntime));
     }
 
     @Override
@@ -65,7 +76,7 @@ public class ProgressTracker implements AutoCloseable {
     }
 
     public Progress current() {
-        Progress progress = dao.current();
+        Progress progress = statistics.progress(dao.current());
         Instant sessionStartTime = this.sessionStartTime;
         if (sessionStartTime != null) {
             progress = progress.withRuntime(progress.runtime() + Duration.between(sessionStartTime, Instant.now()).toMillis());
@@ -3,11 +3,13 @@ package org.netpreserve.warcaroo;
 import org.netpreserve.jwarc.HttpResponse;
 import org.netpreserve.jwarc.WarcReader;
 import org.netpreserve.jwarc.WarcResponse;
+import org.netpreserve.jwarc.WarcRevisit;
 import org.netpreserve.warcaroo.cdp.BrowserProcess;
 import org.netpreserve.warcaroo.cdp.NavigationException;
 import org.netpreserve.warcaroo.cdp.RequestHandler;
 import org.netpreserve.warcaroo.cdp.ResourceFetched;
 import org.netpreserve.warcaroo.util.Url;
+import org.netpreserve.warcaroo.util.ZstdWarc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,23 +30,62 @@ public class Replay {
                 httpResponse.body().stream().readAllBytes());
     }
 
+    /**
+     * Opens a WARC file for reading from the record at the given offset.
+     */
+    static WarcReader openWarc(Path file, long offset) throws IOException {
+        if (ZstdWarc.isZstd(file)) {
+            return new WarcReader(ZstdWarc.open(file, offset));
+        }
+        var reader = new WarcReader(file);
+        reader.position(offset);
+        return reader;
+    }
+
+    /**
+     * Returns the latest capture of a URL. A revisit is served with its own headers and the payload of the response
+     * it refers to.
+     */
+    static RequestHandler.Response replay(Database db, Path jobDir, Url url) {
+        var resource = db.resources().findByUrl(url);
+        if (resource == null) {
+            return new RequestHandler.Response(404, "Not found");
+        }
+        if (resource.isRevisit() && resource.revisitOf() == null) {
+            return new RequestHandler.Response(501, "Payload was captured by a previous crawl");
+        }
+        try (var warcReader = openWarc(jobDir.resolve(resource.filename()), resource.responseOffset())) {
+            var record = warcReader.next().orElseThrow(() -> new IOException("No record at offset"));
+            if (record instanceof WarcResponse response) {
+                return toResponse(response.http());
+            }
+            if (!(record instanceof WarcRevisit revisit) || !resource.isRevisit()) {
+                throw new IOException("Unexpected " + record.type() + " record");
+            }
+            var original = db.resources().find(resource.revisitOf());
+            if (original == null) {
+                return new RequestHandler.Response(404, "Revisited capture not found");
+            }
+            try (var originalReader = openWarc(jobDir.resolve(original.filename()), original.responseOffset())) {
+                if (!(originalReader.next().orElse(null) instanceof WarcResponse originalResponse)) {
+                    throw new IOException("Revisited record is not a response");
+                }
+                var http = revisit.http();
+                return new RequestHandler.Response(http.status(), http.reason(),
+                        HttpHeaders.of(http.headers().map(), (name, value) -> true),
+                        originalResponse.http().body().stream().readAllBytes());
+            }
+        } catch (IOException e) {
+            log.error("Error replaying {}", url, e);
+            return new RequestHandler.Response(500, "Error");
+        }
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException, SQLException, TimeoutException, NavigationException {
         try (var database = Database.open(Path.of("data", "db.sqlite3"));
              var browserProcess = BrowserProcess.start();
-             var window = browserProcess.newWindow(null, request -> {
-                 var resource = database.resources().findByUrl(request.url());
-                 if (resource == null) {
-                     return new RequestHandler.Response(404, "Not found");
-                 }
-                 try (var warcReader = new WarcReader(Path.of("data", resource.filename()))) {
-                     warcReader.position(resource.responseOffset());
-                     var record = (WarcResponse) warcReader.next().orElseThrow();
-                     return toResponse(record.http());
-                 } catch (IOException e) {
-                     log.error("Error replaying {}", request.url(), e);
-                     return new RequestHandler.Response(500, "Error");
-                 }
-             })) {
+             var window = browserProcess.newWindow(null,
+                     request -> replay(database, Path.of("data"), request.url()))) {
             window.navigateTo(new Url(args[0]));
             Thread.sleep(50000);
         }
@@ -55,21 +96,9 @@ public class Replay {
             @Override
             public void accept(ResourceFetched resourceFetched) {
                 log.info("Fetched {}", resourceFetched);
+                resourceFetched.close();
             }
-        }, request -> {
-            var resource = db.resources().findByUrl(request.url());
-            if (resource == null) {
-                return new RequestHandler.Response(404, "Not found");
-            }
-            try (var warcReader = new WarcReader(Path.of("data", resource.filename()))) {
-                warcReader.position(resource.responseOffset());
-                var record = (WarcResponse) warcReader.next().orElseThrow();
-                return toResponse(record.http());
-            } catch (IOException e) {
-                log.error("Error replaying {}", request.url(), e);
-                return new RequestHandler.Response(500, "Error");
-            }
-        })) {
+        }, request -> replay(db, Path.of("data"), request.url()))) {
             window.networkManager().captureResponseBodies(false);
             window.navigateTo(url);
             window.waitForRequestInterceptorIdle();
@@ -35,10 +35,20 @@ public record Resource(
         String ipAddress,
         Network.ResourceType type,
         String protocol,
-        long transferred) {
+        long transferred,
+        @Nullable Long revisitOf,
+        @Nullable Instant refersToDate) {
     public Resource {
     }
 
+    /**
+     * Returns true if this was written as a revisit record. {@link #refersToDate()} is then the date of the capture
+     * with the payload, and {@link #revisitOf()} its id if it was made by this crawl rather than a previous one.
+     */
+    public boolean isRevisit() {
+        return refersToDate != null;
+    }
+
     public long storage() {
         return responseLength + requestLength + metadataLength;
     }
@@ -49,6 +59,6 @@ public record Resource(
         return new Resource(id, responseUuid, pageId, method, url, hostId, domainId,
                 date, filename, responseOffset, responseLength, requestLength, metadataLength,
                 status, redirect, payloadType, payloadSize, payloadDigest, fetchTimeMs,
-                ipAddress, type, protocol, transferred);
+                ipAddress, type, protocol, transferred, revisitOf, refersToDate);
     }
 }
@@ -22,14 +22,19 @@ import java.util.concurrent.atomic.AtomicReference;
 public class RobotsTxtChecker {
     private static final Logger log = LoggerFactory.getLogger(RobotsTxtChecker.class);
     private final RobotsTxtDAO dao;
+    private final DatabaseWriter writer;
     private final HttpClient httpClient;
     private final Storage storage;
     private final List<String> userAgents;
     private final String fetchUserAgent;
 
-    public RobotsTxtChecker(RobotsTxtDAO dao, HttpClient httpClient, Storage storage, List<String> userAgents,
-                            String fetchUserAgent) {
+    /**
+     * @param dao only used for reads, updates go through writer
+     */
+    public RobotsTxtChecker(RobotsTxtDAO dao, DatabaseWriter writer, HttpClient httpClient, Storage storage,
+                            List<String> userAgents, String fetchUserAgent) {
         this.dao = dao;
+        this.writer = writer;
         this.httpClient = httpClient;
         this.storage = storage;
         this.userAgents = userAgents;
@@ -81,7 +86,7 @@ public class RobotsTxtChecker {
         if (status < 200 || status == 429 || status >= 500) {
             // server error, reuse stale value unless older than 30 days
             if (prev != null && prev.date().isAfter(now.minus(Period.ofDays(30)))) {
-                dao.updateRobotsTxtLastChecked(robotsUri.toString(), now);
+                writer.execute(db -> db.robotsTxt().updateRobotsTxtLastChecked(robotsUri.toString(), now));
                 return prev;
             }
 
@@ -92,7 +97,8 @@ public class RobotsTxtChecker {
             body = new byte[0];
         }
 
-        dao.saveRobotsTxt(robotsUri.toString(), now, body);
+        byte[] savedBody = body;
+        writer.execute(db -> db.robotsTxt().saveRobotsTxt(robotsUri.toString(), now, savedBody));
         return new RobotsTxt(robotsUri.toString(), now, now, body);
     }
 }
@@ -0,0 +1,218 @@
+package org.netpreserve.warcaroo;
+
+import org.jetbrains.annotations.Nullable;
+import org.netpreserve.warcaroo.config.SeenUrlFilterConfig;
+import org.netpreserve.warcaroo.util.Url;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Bloom filter of every URL that has been added to the frontier.
+ * <p>
+ * A negative answer from {@link #mightContain(Url)} means the URL is definitely new, so {@link Frontier} can skip
+ * looking it up in the database. The bits are kept off-heap in a memory-mapped file that is reused on the next
+ * startup if it was closed cleanly and is otherwise rebuilt from the frontier table.
+ */
+public class SeenUrlFilter implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SeenUrlFilter.class);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final long MAGIC = 0x7761726361726f6fL; // "warcaroo"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CLEAN_OFFSET = 24;
+    private static final long MAX_BITS = (Integer.MAX_VALUE - HEADER_SIZE) / Long.BYTES * (long) Long.SIZE;
+
+    private final ByteBuffer buffer;
+    private final @Nullable FileChannel channel;
+    private final long bits;
+    private final int hashes;
+    private final double falsePositiveRate;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    private SeenUrlFilter(ByteBuffer buffer, @Nullable FileChannel channel, long bits, int hashes,
+                          double falsePositiveRate) {
+        this.buffer = buffer;
+        this.channel = channel;
+        this.bits = bits;
+        this.hashes = hashes;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Opens the filter stored at the given path, rebuilding it from the frontier table if the file is missing, was not
+     * closed cleanly or was sized differently. If path is null the filter is held in an anonymous direct buffer.
+     */
+    public static SeenUrlFilter open(Database db, @Nullable Path path, @Nullable SeenUrlFilterConfig config)
+            throws IOException {
+        if (config == null) config = new SeenUrlFilterConfig(null, null);
+        long expectedUrls = Math.max(1, config.expectedUrlsOrDefault());
+        double falsePositiveRate = config.falsePositiveRateOrDefault();
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("seenUrlFilter.falsePositiveRate must be between 0 and 1");
+        }
+
+        // standard optimal sizing: m = -n ln(p) / ln(2)^2, k = m/n ln(2)
+        long bits = (long) Math.ceil(-expectedUrls * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if (bits > MAX_BITS) {
+            log.warn("Seen URL filter for {} URLs would need {} bits, capping at {}", expectedUrls, bits, MAX_BITS);
+            bits = MAX_BITS;
+        }
+        bits = Math.max(Long.SIZE, (bits + Long.SIZE - 1) / Long.SIZE * Long.SIZE);
+        int hashes = (int) Math.max(1, Math.round((double) bits / expectedUrls * Math.log(2)));
+        int size = HEADER_SIZE + (int) (bits / Byte.SIZE);
+
+        if (path == null) {
+            var filter = new SeenUrlFilter(ByteBuffer.allocateDirect(size), null, bits, hashes, falsePositiveRate);
+            filter.rebuild(db);
+            return filter;
+        }
+
+        var channel = FileChannel.open(path, READ, WRITE, CREATE);
+        try {
+            boolean reusable = channel.size() == size;
+            if (!reusable) channel.truncate(0);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            reusable = reusable && buffer.getLong(0) == MAGIC
+                       && buffer.getInt(8) == VERSION
+                       && buffer.getLong(12) == bits
+                       && buffer.getInt(20) == hashes
+                       && buffer.get(CLEAN_OFFSET) == 1;
+            var filter = new SeenUrlFilter(buffer, channel, bits, hashes, falsePositiveRate);
+            if (reusable) {
+                log.info("Loaded seen URL filter from {}", path);
+            } else {
+                filter.rebuild(db);
+            }
+            // mark as dirty until closed so a crash forces a rebuild
+            buffer.put(CLEAN_OFFSET, (byte) 0);
+            buffer.force(0, HEADER_SIZE);
+            return filter;
+        } catch (Throwable e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void rebuild(Database db) {
+        long start = System.nanoTime();
+        for (int i = HEADER_SIZE; i < buffer.capacity(); i += Long.BYTES) {
+            buffer.putLong(i, 0);
+        }
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.putLong(12, bits);
+        buffer.putInt(20, hashes);
+        long[] count = new long[1];
+        db.frontier().forEachUrl(url -> {
+            put(url);
+            count[0]++;
+        });
+        log.info("Rebuilt seen URL filter from {} frontier URLs in {}ms ({} bits, {} hashes)", count[0],
+                (System.nanoTime() - start) / 1_000_000, bits, hashes);
+    }
+
+    /**
+     * Returns false if the URL has definitely never been added, true if it probably has.
+     */
+    public boolean mightContain(Url url) {
+        long hash = hash(url.toString());
+        long h1 = mix(hash);
+        long h2 = mix(hash + 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+            long word = (long) LONGS.getAcquire(buffer, offset(bit));
+            if ((word & (1L << bit)) == 0) {
+                misses.increment();
+                return false;
+            }
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Records that a URL has been added.
+     */
+    public void put(Url url) {
+        put(url.toString());
+    }
+
+    private void put(String url) {
+        long hash = hash(url);
+        long h1 = mix(hash);
+        long h2 = mix(hash + 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+            LONGS.getAndBitwiseOrRelease(buffer, offset(bit), 1L << bit);
+        }
+    }
+
+    /**
+     * Records that a URL reported by {@link #mightContain(Url)} turned out not to be in the database.
+     */
+    void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    private static int offset(long bit) {
+        return HEADER_SIZE + (int) (bit >>> 6) * Long.BYTES;
+    }
+
+    // FNV-1a over the UTF-16 chars, the result is only used as a seed for mix()
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // splitmix64 finalizer
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), falsePositives.sum(), bits, hashes, falsePositiveRate);
+    }
+
+    /**
+     * @param hits              lookups that were (possibly falsely) reported as seen
+     * @param misses            lookups that were definitely unseen and skipped the database
+     * @param falsePositives    hits that turned out not to be in the database
+     * @param bits              size of the filter in bits
+     * @param hashes            number of hash functions
+     * @param falsePositiveRate configured target false positive rate
+     */
+    public record Stats(long hits, long misses, long falsePositives, long bits, int hashes,
+                        double falsePositiveRate) {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        var mapped = (MappedByteBuffer) buffer;
+        mapped.force();
+        mapped.put(CLEAN_OFFSET, (byte) 1);
+        mapped.force(0, HEADER_SIZE);
+        channel.close();
+    }
+}
@@ -0,0 +1,173 @@
+package org.netpreserve.warcaroo;
+
+import org.jdbi.v3.core.statement.ParsedSql;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.SQLiteException;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-statement execution metrics for a database connection pool.
+ * <p>
+ * Statements run through a DAO are keyed by DAO method (e.g. "HostDAO.find"), others by their SQL. Latencies are
+ * recorded in a log-linear histogram with 8 sub-buckets per power of two, so reported percentiles are within 12.5%
+ * of the true value.
+ */
+public class SqlMetrics implements SqlLogger {
+    private static final Logger log = LoggerFactory.getLogger(SqlMetrics.class);
+    private static final long SLOW_SQL_MILLIS = 100;
+    private static final int MAX_SQL_KEY_LENGTH = 200;
+
+    private final ConcurrentHashMap<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+
+    @Override
+    public void logAfterExecution(StatementContext context) {
+        if (context.getExecutionMoment() == null || context.getCompletionMoment() == null) return;
+        var duration = Duration.between(context.getExecutionMoment(), context.getCompletionMoment());
+        long rows = -1;
+        try {
+            if (context.getStatement() != null) rows = context.getStatement().getUpdateCount();
+        } catch (SQLException e) {
+            // not available for this statement type
+        }
+        var metrics = metrics(context);
+        metrics.latency.record(duration.toNanos() / 1000);
+        if (rows > 0) metrics.rowsAffected.add(rows);
+
+        if (duration.toMillis() > SLOW_SQL_MILLIS) {
+            log.warn("[Slow SQL] {}ms {}", duration.toMillis(), sql(context));
+        }
+    }
+
+    @Override
+    public void logException(StatementContext context, SQLException ex) {
+        var metrics = metrics(context);
+        metrics.errors.increment();
+        if (ex instanceof SQLiteException sqliteException && isBusy(sqliteException.getResultCode())) {
+            metrics.busy.increment();
+        }
+    }
+
+    private static boolean isBusy(SQLiteErrorCode code) {
+        // compare primary result codes so extended codes like SQLITE_BUSY_SNAPSHOT are included
+        int primary = code.code & 0xff;
+        return primary == SQLiteErrorCode.SQLITE_BUSY.code || primary == SQLiteErrorCode.SQLITE_LOCKED.code;
+    }
+
+    private StatementMetrics metrics(StatementContext context) {
+        return statements.computeIfAbsent(key(context), k -> new StatementMetrics());
+    }
+
+    private static String key(StatementContext context) {
+        var extensionMethod = context.getExtensionMethod();
+        if (extensionMethod != null) {
+            var method = extensionMethod.getMethod();
+            return method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        }
+        String sql = sql(context).strip().replaceAll("\\s+", " ");
+        return sql.length() > MAX_SQL_KEY_LENGTH ? sql.substring(0, MAX_SQL_KEY_LENGTH) : sql;
+    }
+
+    private static String sql(StatementContext context) {
+        ParsedSql parsedSql = context.getParsedSql();
+        return parsedSql != null ? parsedSql.getSql() : "<sql unavailable>";
+    }
+
+    /**
+     * Returns the metrics of every statement executed so far, slowest in total first.
+     */
+    public List<StatementStats> snapshot() {
+        return statements.entrySet().stream()
+                .map(entry -> entry.getValue().stats(entry.getKey()))
+                .sorted(Comparator.comparingLong(StatementStats::totalMicros).reversed())
+                .toList();
+    }
+
+    /**
+     * @param statement      DAO method or SQL text
+     * @param count          number of successful executions
+     * @param errors         number of failed executions
+     * @param busy           executions that failed because the database was locked (SQLITE_BUSY or SQLITE_LOCKED)
+     * @param rowsAffected   total rows inserted, updated or deleted
+     * @param totalMicros    total execution time
+     * @param p50Micros      median execution time
+     * @param p99Micros      99th percentile execution time
+     * @param maxMicros      maximum execution time
+     */
+    public record StatementStats(String statement, long count, long errors, long busy, long rowsAffected,
+                                 long totalMicros, long p50Micros, long p99Micros, long maxMicros) {
+    }
+
+    private static class StatementMetrics {
+        final Histogram latency = new Histogram();
+        final LongAdder rowsAffected = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder busy = new LongAdder();
+
+        StatementStats stats(String key) {
+            return new StatementStats(key, latency.count.sum(), errors.sum(), busy.sum(), rowsAffected.sum(),
+                    latency.total.sum(), latency.percentile(0.50), latency.percentile(0.99), latency.max.get());
+        }
+    }
+
+    /**
+     * Lock-free histogram of non-negative values. Values below 16 are counted exactly, larger ones in 8 linear
+     * sub-buckets per power of two.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = 16 + (Long.SIZE - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        static int bucket(long value) {
+            if (value < 16) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return 16 + (exponent - 4) * SUB_BUCKETS + subBucket;
+        }
+
+        static long highestValueInBucket(int bucket) {
+            if (bucket < 16) return bucket;
+            int exponent = (bucket - 16) / SUB_BUCKETS + 4;
+            int subBucket = (bucket - 16) % SUB_BUCKETS;
+            long lowest = (long) (SUB_BUCKETS + subBucket) << (exponent - 3);
+            return lowest + (1L << (exponent - 3)) - 1;
+        }
+
+        long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(highestValueInBucket(i), max.get());
+            }
+            return max.get();
+        }
+    }
+}
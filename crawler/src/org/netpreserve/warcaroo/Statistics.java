@@ -0,0 +1,244 @@
+package org.netpreserve.warcaroo;
+
+import org.netpreserve.warcaroo.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Crawl progress and per-host/per-domain counters, aggregated in memory and written to the database in the
+ * background.
+ * <p>
+ * Workers only touch in-memory counters so they don't contend on the single progress row. The accumulated deltas
+ * are flushed in one transaction every {@link #FLUSH_INTERVAL_MILLIS} and on close. Counters updated since the last
+ * flush are lost if the process crashes.
+ */
+public class Statistics implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Statistics.class);
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    // indexes into the host and domain delta arrays
+    static final int PENDING = 0, FAILED = 1, ROBOTS_EXCLUDED = 2, PAGES = 3, RESOURCES = 4, SIZE = 5,
+            TRANSFERRED = 6, STORAGE = 7, FIELDS = 8;
+
+    private final DatabaseWriter writer;
+    private final Counter discovered = new Counter();
+    private final Counter pending = new Counter();
+    private final Counter crawled = new Counter();
+    private final Counter failed = new Counter();
+    private final Counter resources = new Counter();
+    private final Counter size = new Counter();
+    private final ConcurrentHashMap<Long, long[]> hostDeltas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, long[]> domainDeltas = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    public Statistics(Database db, DatabaseWriter writer) {
+        this.writer = writer;
+        Progress progress = db.progress().current();
+        discovered.total.add(progress.discovered());
+        pending.total.add(progress.pending());
+        crawled.total.add(progress.crawled());
+        failed.total.add(progress.failed());
+        resources.total.add(progress.resources());
+        size.total.add(progress.size());
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("statistics"));
+        executor.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void urlsAdded(long hostId, long domainId, int count) {
+        discovered.add(count);
+        pending.add(count);
+        add(hostDeltas, hostId, PENDING, count);
+        add(domainDeltas, domainId, PENDING, count);
+    }
+
+    public void urlStateChanged(long hostId, long domainId, FrontierUrl.State oldState, FrontierUrl.State newState) {
+        if (oldState == newState) return;
+        if (oldState == FrontierUrl.State.PENDING) pending.add(-1);
+        if (newState == FrontierUrl.State.PENDING) pending.add(1);
+        if (newState == FrontierUrl.State.CRAWLED) crawled.add(1);
+        if (newState == FrontierUrl.State.FAILED) failed.add(1);
+        Consumer<long[]> update = v -> {
+            v[PENDING] += stateDelta(FrontierUrl.State.PENDING, oldState, newState);
+            v[FAILED] += stateDelta(FrontierUrl.State.FAILED, oldState, newState);
+            v[ROBOTS_EXCLUDED] += stateDelta(FrontierUrl.State.ROBOTS_EXCLUDED, oldState, newState);
+        };
+        update(hostDeltas, hostId, update);
+        update(domainDeltas, domainId, update);
+    }
+
+    private static int stateDelta(FrontierUrl.State state, FrontierUrl.State oldState, FrontierUrl.State newState) {
+        return (newState == state ? 1 : 0) - (oldState == state ? 1 : 0);
+    }
+
+    public void pageAdded(long hostId, long domainId) {
+        add(hostDeltas, hostId, PAGES, 1);
+        add(domainDeltas, domainId, PAGES, 1);
+    }
+
+    public void resourceAdded(Resource resource) {
+        resources.add(1);
+        size.add(resource.payloadSize());
+        Consumer<long[]> update = v -> {
+            v[RESOURCES] += 1;
+            v[SIZE] += resource.payloadSize();
+            v[TRANSFERRED] += resource.transferred();
+            v[STORAGE] += resource.storage();
+        };
+        update(hostDeltas, resource.hostId(), update);
+        update(domainDeltas, resource.domainId(), update);
+    }
+
+    private static void add(ConcurrentHashMap<Long, long[]> deltas, long id, int field, long value) {
+        update(deltas, id, v -> v[field] += value);
+    }
+
+    private static void update(ConcurrentHashMap<Long, long[]> deltas, long id, Consumer<long[]> update) {
+        deltas.compute(id, (k, v) -> {
+            if (v == null) v = new long[FIELDS];
+            update.accept(v);
+            return v;
+        });
+    }
+
+    public long crawled() {
+        return crawled.total.sum();
+    }
+
+    public long size() {
+        return size.total.sum();
+    }
+
+    /**
+     * Returns the live progress counters. The id, date and runtime fields are taken from the given database row.
+     */
+    public Progress progress(Progress row) {
+        return new Progress(row.id(), row.date(), row.runtime(), discovered.total.sum(), pending.total.sum(),
+                crawled.total.sum(), failed.total.sum(), resources.total.sum(), size.total.sum());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush statistics", e);
+        }
+    }
+
+    /**
+     * Writes all counter changes made since the last flush to the database.
+     */
+    public synchronized void flush() {
+        var hosts = drain(hostDeltas);
+        var domains = drain(domainDeltas);
+        long discovered = this.discovered.unflushed.sumThenReset();
+        long pending = this.pending.unflushed.sumThenReset();
+        long crawled = this.crawled.unflushed.sumThenReset();
+        long failed = this.failed.unflushed.sumThenReset();
+        long resources = this.resources.unflushed.sumThenReset();
+        long size = this.size.unflushed.sumThenReset();
+        if (hosts.isEmpty() && domains.isEmpty() && discovered == 0 && pending == 0 && crawled == 0 && failed == 0
+            && resources == 0 && size == 0) return;
+        try {
+            writer.run(dao -> {
+                if (!hosts.isEmpty()) dao.hosts().addStatistics(hosts);
+                if (!domains.isEmpty()) dao.domains().addStatistics(domains);
+                dao.progress().addStatistics(discovered, pending, crawled, failed, resources, size);
+            });
+        } catch (RuntimeException e) {
+            // put the deltas back so they're retried on the next flush
+            for (var delta : hosts) merge(hostDeltas, delta);
+            for (var delta : domains) merge(domainDeltas, delta);
+            this.discovered.unflushed.add(discovered);
+            this.pending.unflushed.add(pending);
+            this.crawled.unflushed.add(crawled);
+            this.failed.unflushed.add(failed);
+            this.resources.unflushed.add(resources);
+            this.size.unflushed.add(size);
+            throw e;
+        }
+    }
+
+    private static List<Delta> drain(ConcurrentHashMap<Long, long[]> deltas) {
+        var list = new ArrayList<Delta>(deltas.size());
+        for (Long id : deltas.keySet()) {
+            // once removed no other thread can update the array as compute() is atomic per key
+            long[] values = deltas.remove(id);
+            if (values != null) list.add(new Delta(id, values));
+        }
+        return list;
+    }
+
+    private static void merge(ConcurrentHashMap<Long, long[]> deltas, Delta delta) {
+        update(deltas, delta.id(), v -> {
+            for (int i = 0; i < FIELDS; i++) v[i] += delta.values[i];
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Accumulated changes to a host or domain's counters.
+     */
+    public record Delta(long id, long[] values) {
+        public long pending() {
+            return values[PENDING];
+        }
+
+        public long failed() {
+            return values[FAILED];
+        }
+
+        public long robotsExcluded() {
+            return values[ROBOTS_EXCLUDED];
+        }
+
+        public long pages() {
+            return values[PAGES];
+        }
+
+        public long resources() {
+            return values[RESOURCES];
+        }
+
+        public long size() {
+            return values[SIZE];
+        }
+
+        public long transferred() {
+            return values[TRANSFERRED];
+        }
+
+        public long storage() {
+            return values[STORAGE];
+        }
+    }
+
+    private static class Counter {
+        final LongAdder total = new LongAdder();
+        final LongAdder unflushed = new LongAdder();
+
+        void add(long value) {
+            total.add(value);
+            unflushed.add(value);
+        }
+    }
+}
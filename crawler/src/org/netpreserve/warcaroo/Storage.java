@@ -2,16 +2,20 @@ package org.netpreserve.warcaroo;
 
 import com.fasterxml.uuid.Generators;
 import com.fasterxml.uuid.impl.TimeBasedEpochGenerator;
+import org.jetbrains.annotations.Nullable;
 import org.netpreserve.jwarc.*;
 import org.netpreserve.warcaroo.cdp.ResourceFetched;
 import org.netpreserve.warcaroo.cdp.domains.Network;
+import org.netpreserve.warcaroo.config.Compression;
 import org.netpreserve.warcaroo.config.StorageConfig;
 import org.netpreserve.warcaroo.util.BareMediaType;
+import org.netpreserve.warcaroo.util.NamedThreadFactory;
 import org.netpreserve.warcaroo.util.Url;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
 import java.nio.channels.Channels;
@@ -19,46 +23,173 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.netpreserve.jwarc.MediaType.HTTP_REQUEST;
 import static org.netpreserve.jwarc.MediaType.HTTP_RESPONSE;
 
 public class Storage implements Closeable {
     private final Logger log = LoggerFactory.getLogger(Storage.class);
-    private final BlockingDeque<WarcRotator> warcPool;
+    /**
+     * Default size at which a WARC file is finished and a new one started.
+     */
+    static final long DEFAULT_ROTATE_SIZE = 1024 * 1024 * 1024;
+    private final Path directory;
+    private final WarcRotatorPool warcPool;
+    private final long rotateSize;
+    private final @Nullable Duration rotateTime;
+    private final ThreadPoolExecutor finisher;
+    private final Set<CompletableFuture<Void>> finishing = ConcurrentHashMap.newKeySet();
     final Database db;
+    private final DatabaseWriter writer;
+    private final Statistics statistics;
+    private final HostIdCache hostIds;
     private final TimeBasedEpochGenerator uuidGenerator;
     private final int poolSize = 8;
+    /**
+     * Payloads smaller than this are stored in full as a revisit record wouldn't save much.
+     */
+    static final long MIN_REVISIT_SIZE = 1024;
+    private final PayloadIndex payloadIndex;
+    private final @Nullable PriorCaptureIndex priorCaptures;
+    private final LongAdder revisits = new LongAdder();
+    private final LongAdder priorRevisits = new LongAdder();
+    private final LongAdder revisitBytesSaved = new LongAdder();
 
-    public Storage(Path directory, Database db, StorageConfig config) throws IOException {
+    /**
+     * @param db only used for reads, all writes go through writer
+     */
+    public Storage(Path directory, Database db, DatabaseWriter writer, StorageConfig config, Statistics statistics,
+                   HostIdCache hostIds) throws IOException {
         this.db = db;
+        this.writer = writer;
+        this.statistics = statistics;
+        this.hostIds = hostIds;
         this.uuidGenerator = Generators.timeBasedEpochGenerator();
-        warcPool = new LinkedBlockingDeque<>(poolSize);
+        this.payloadIndex = new PayloadIndex(db, PayloadIndex.DEFAULT_CAPACITY);
+        this.directory = directory;
+        this.rotateSize = config != null && config.rotateSize() != null ? config.rotateSize() : DEFAULT_ROTATE_SIZE;
+        this.rotateTime = config != null ? config.rotateTime() : null;
 
-        Path warcsDir = directory.resolve("warcs");
+        List<Path> warcsDirs = config != null && config.directories() != null && !config.directories().isEmpty()
+                ? config.directories().stream().map(directory::resolve).toList()
+                : List.of(directory.resolve("warcs"));
+        // the first directory holds the files shared by all of them
+        Path warcsDir = warcsDirs.get(0);
         Files.createDirectories(warcsDir);
 
         String prefix = config != null && config.prefix() != null ? config.prefix() : "warcaroo-";
-        for (int i = 0; i < poolSize; i++) {
-            warcPool.add(new WarcRotator(warcsDir, prefix));
+        Compression compression = config != null && config.compression() != null ? config.compression() : Compression.GZIP;
+        ZstdDictionary dictionary = null;
+        if (compression == Compression.ZSTD) {
+            long trainingSize = config.dictionaryTrainingSize() != null ? config.dictionaryTrainingSize() : 0;
+            dictionary = new ZstdDictionary(warcsDir.resolve(prefix + ".zstdict"), trainingSize);
         }
+        boolean cdxj = config == null || config.cdxj() == null || config.cdxj();
+        Path cdxjIndex = config != null && config.cdxjIndex() != null ? warcsDir.resolve(config.cdxjIndex()) : null;
+        var zstdDictionary = dictionary;
+        int rotatorsPerDirectory = Math.max(2, (poolSize + warcsDirs.size() - 1) / warcsDirs.size());
+        warcPool = new WarcRotatorPool(warcsDirs, rotatorsPerDirectory, rotateSize,
+                dir -> new WarcRotator(dir, prefix, compression, zstdDictionary, cdxj, cdxjIndex));
+        finisher = new ThreadPoolExecutor(warcsDirs.size(), warcsDirs.size(), 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("warc-finisher"));
+        this.priorCaptures = config != null && config.priorCaptures() != null && !config.priorCaptures().isEmpty()
+                ? openPriorCaptures(directory.resolve("prior-captures.idx"),
+                config.priorCaptures().stream().map(Path::of).toList())
+                : null;
+    }
+
+    /**
+     * Opens the prior capture table, (re)building it if the list of sources or any of the sources themselves have
+     * changed since it was built. A single prebuilt table is used as is.
+     */
+    private PriorCaptureIndex openPriorCaptures(Path table, List<Path> sources) throws IOException {
+        if (sources.size() == 1 && PriorCaptureIndex.isIndex(sources.get(0))) {
+            return PriorCaptureIndex.open(sources.get(0));
+        }
+        PriorCaptureIndex index = null;
+        if (Files.exists(table)) {
+            try {
+                index = PriorCaptureIndex.open(table);
+            } catch (IOException e) {
+                log.warn("Rebuilding unreadable prior capture index {}", table, e);
+            }
+        }
+        boolean stale = index == null || !index.isBuiltFrom(sources);
+        for (Path source : sources) {
+            if (stale) break;
+            stale = Files.getLastModifiedTime(source).compareTo(Files.getLastModifiedTime(table)) > 0;
+        }
+        if (stale) {
+            if (index != null) index.close();
+            PriorCaptureIndex.build(sources, table);
+            index = PriorCaptureIndex.open(table);
+        }
+        log.info("Loaded {} prior captures from {}", index.size(), table);
+        return index;
     }
 
     @Override
     public void close() throws IOException {
-        for (int i = 0; i < poolSize; i++) {
+        try {
+            warcPool.close();
+        } finally {
+            finisher.shutdown();
             try {
-                warcPool.take().close();
+                if (!finisher.awaitTermination(5, TimeUnit.MINUTES)) {
+                    log.error("Timed out finishing {} WARC files", finishing.size());
+                }
             } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                Thread.currentThread().interrupt();
             }
+            if (priorCaptures != null) priorCaptures.close();
         }
     }
 
+    /**
+     * Finishes the rotator's current file in the background.
+     */
+    private void rotate(WarcRotator rotator) {
+        Path path = rotator.path();
+        var future = rotator.rotate(finisher);
+        finishing.add(future);
+        future.whenComplete((result, e) -> {
+            finishing.remove(future);
+            if (e != null) log.error("Error finishing {}", path, e);
+        });
+    }
+
+    /**
+     * Returns the value stored in resources.filename for a WARC file: the path relative to the job directory, or the
+     * absolute path if it's elsewhere.
+     */
+    private String location(Path file) {
+        return file.startsWith(directory) ? directory.relativize(file).toString() : file.toAbsolutePath().toString();
+    }
+
+    public DedupStats dedupStats() {
+        return new DedupStats(revisits.sum(), priorRevisits.sum(), revisitBytesSaved.sum());
+    }
+
+    /**
+     * @param revisits      number of revisit records written instead of a duplicate payload
+     * @param priorRevisits how many of those revisits refer to a capture made by a previous crawl
+     * @param bytesSaved    total size of the payloads not stored again
+     */
+    public record DedupStats(long revisits, long priorRevisits, long bytesSaved) {
+    }
+
+    /**
+     * Returns the number of WARC writers not currently in use.
+     */
+    public int availableWriters() {
+        return warcPool.available();
+    }
+
     private WarcDigest sha1(byte[] data) {
         try {
             if (data == null) return null;
@@ -129,7 +260,7 @@ public class Storage implements Closeable {
                     new Network.ResourceType("Robots"),
                     response.version() == HttpClient.Version.HTTP_2 ? "h2" : null,
                     responseHeader.length + response.body().length, null, null, null,
-                    responseTime);
+                    responseTime, -1, null);
             save(metadata.pageId(), fetch, null);
         }
     }
@@ -156,7 +287,12 @@ public class Storage implements Closeable {
     public Resource save(long pageId, ResourceFetched fetch, Map<String, List<String>> metadata) throws IOException {
         long responseBodyLength;
         WarcDigest responseDigest;
-        if (fetch.responseBodyChannel() != null) {
+        byte[] recordedSha1 = fetch.responseBodyDigests() == null ? null : fetch.responseBodyDigests().get("SHA-1");
+        if (recordedSha1 != null) {
+            // digested by the recorder as the body was written, no need to read it again
+            responseDigest = new WarcDigest("sha1", recordedSha1);
+            responseBodyLength = fetch.responseBodyLength();
+        } else if (fetch.responseBodyChannel() != null) {
             fetch.responseBodyChannel().position(0);
             responseDigest = sha1(Channels.newInputStream(fetch.responseBodyChannel()));
             responseBodyLength = fetch.responseBodyChannel().size();
@@ -168,30 +304,51 @@ public class Storage implements Closeable {
             responseDigest = null;
             responseBodyLength = 0;
         }
-        var existingDuplicate = db.resources().findByUrlAndPayload(fetch.url().toString(),
-                responseBodyLength,
-                responseDigest == null ? null : responseDigest.prefixedBase32());
-        if (existingDuplicate != null) {
-            log.debug("Not saving duplicate of resource {}: {}", existingDuplicate.responseUuid(), fetch.url());
-            return existingDuplicate;
-        }
+        // the same payload stored earlier in this crawl, under this or any other URL
+        PayloadIndex.Original original = responseDigest != null && responseBodyLength >= MIN_REVISIT_SIZE
+                ? payloadIndex.find(responseDigest, responseBodyLength) : null;
+        // the same payload captured at this URL by a previous crawl
+        Instant priorDate = original == null && priorCaptures != null && responseDigest != null
+                            && responseBodyLength >= MIN_REVISIT_SIZE
+                ? priorCaptures.find(fetch.url(), responseDigest) : null;
+        boolean revisit = original != null || priorDate != null;
 
         Instant responseTime = fetch.responseTime();
         UUID responseUuid = uuidGenerator.construct(responseTime.toEpochMilli());
-        var warcResponseBuilder = new WarcResponse.Builder(fetch.url().toString())
-                .date(responseTime)
-                .recordId(responseUuid);
-        if (fetch.responseBodyChannel() != null) {
-            var headerPlusBody = new SequenceInputStream(new ByteArrayInputStream(fetch.responseHeader()),
-                    Channels.newInputStream(fetch.responseBodyChannel()));
-            warcResponseBuilder.body(HTTP_RESPONSE, Channels.newChannel(headerPlusBody),
-                    fetch.responseHeader().length + fetch.responseBodyChannel().size());
-            warcResponseBuilder.payloadDigest(responseDigest);
+        WarcCaptureRecord warcResponse;
+        if (revisit) {
+            var warcRevisitBuilder = new WarcRevisit.Builder(fetch.url().toString(),
+                    WarcRevisit.IDENTICAL_PAYLOAD_DIGEST_1_0)
+                    .date(responseTime)
+                    .recordId(responseUuid)
+                    .body(HTTP_RESPONSE, fetch.responseHeader())
+                    .payloadDigest(responseDigest);
+            if (original != null) {
+                warcRevisitBuilder.refersTo(URI.create("urn:uuid:" + original.responseUuid()),
+                        original.url().toString(), original.date());
+            } else {
+                // the index doesn't tell us the original record id
+                warcRevisitBuilder.addHeader("WARC-Refers-To-Target-URI", fetch.url().toString())
+                        .addHeader("WARC-Refers-To-Date", priorDate.toString());
+            }
+            if (fetch.protocol() != null) warcRevisitBuilder.addHeader("WARC-Protocol", fetch.protocol());
+            warcResponse = warcRevisitBuilder.build();
         } else {
-            setBody(warcResponseBuilder, HTTP_RESPONSE, fetch.responseHeader(), fetch.responseBody());
+            var warcResponseBuilder = new WarcResponse.Builder(fetch.url().toString())
+                    .date(responseTime)
+                    .recordId(responseUuid);
+            if (fetch.responseBodyChannel() != null) {
+                var headerPlusBody = new SequenceInputStream(new ByteArrayInputStream(fetch.responseHeader()),
+                        Channels.newInputStream(fetch.responseBodyChannel()));
+                warcResponseBuilder.body(HTTP_RESPONSE, Channels.newChannel(headerPlusBody),
+                        fetch.responseHeader().length + fetch.responseBodyChannel().size());
+                warcResponseBuilder.payloadDigest(responseDigest);
+            } else {
+                setBody(warcResponseBuilder, HTTP_RESPONSE, fetch.responseHeader(), fetch.responseBody());
+            }
+            if (fetch.protocol() != null) warcResponseBuilder.addHeader("WARC-Protocol", fetch.protocol());
+            warcResponse = warcResponseBuilder.build();
         }
-        if (fetch.protocol() != null) warcResponseBuilder.addHeader("WARC-Protocol", fetch.protocol());
-        WarcResponse warcResponse = warcResponseBuilder.build();
 
         var warcRequestBuilder = new WarcRequest.Builder(fetch.url().toString())
                 .date(responseTime)
@@ -221,16 +378,24 @@ public class Storage implements Closeable {
         String filename;
         WarcRotator rotator;
         try {
-            rotator = warcPool.takeFirst();
+            rotator = warcPool.take();
         } catch (InterruptedException e) {
             throw new IOException(e);
         }
         try {
             var warcWriter = rotator.get();
-            filename = rotator.filename();
+            filename = location(rotator.path());
             responseOffset = warcWriter.position();
-            warcWriter.write(warcResponse);
+            if (!revisit && fetch.responseBodyChannel() != null) {
+                warcWriter.write(warcResponse, fetch.responseHeader(), fetch.responseBodyChannel());
+            } else {
+                warcWriter.write(warcResponse);
+            }
             responseLength = warcWriter.position() - responseOffset;
+            String mime = revisit ? "warc/revisit"
+                    : fetch.responseType() == null ? null : fetch.responseType().value();
+            rotator.index(fetch.url(), responseTime, mime, fetch.status(), responseDigest, responseOffset,
+                    responseLength);
             warcWriter.write(warcRequest);
             requestLength = warcWriter.position() - responseOffset - responseLength;
             if (warcMetadata != null) {
@@ -239,17 +404,22 @@ public class Storage implements Closeable {
             } else {
                 metadataLength = 0;
             }
-            if (warcWriter.position() > 1024 * 1024 * 1024) {
-                rotator.close();
+            if (rotator.shouldRotate(rotateSize, rotateTime)) {
+                rotate(rotator);
             }
         } finally {
-            // put it back at the front of the pool to minimize the number of active files
-            warcPool.addFirst(rotator);
+            warcPool.release(rotator);
         }
 
-        return db.inTransaction(db -> {
-            long hostId = db.hosts().insertOrGetId(fetch.url().rhost());
-            long domainId = db.domains().insertOrGetId(fetch.url().rdomain());
+        Long revisitOf = original != null ? original.id() : null;
+        Instant refersToDate = original != null ? original.date() : priorDate;
+        String rhost = fetch.url().rhost();
+        String rdomain = fetch.url().rdomain();
+        Long cachedHostId = hostIds.hostId(rhost);
+        Long cachedDomainId = hostIds.domainId(rdomain);
+        Resource saved = writer.call(db -> {
+            long hostId = cachedHostId != null ? cachedHostId : db.hosts().insertOrGetId(rhost);
+            long domainId = cachedDomainId != null ? cachedDomainId : db.domains().insertOrGetId(rdomain);
             Resource resource = new Resource(
                     null,
                     responseUuid,
@@ -273,11 +443,23 @@ public class Storage implements Closeable {
                     fetch.ipAddress(),
                     fetch.type(),
                     fetch.protocol(),
-                    fetch.transferred());
-            long id = db.resources().add(resource);
+                    fetch.transferred(),
+                    revisitOf,
+                    refersToDate);
+            long id = db.resources().insert(resource);
             db.pages().addResourceToPage(pageId, resource.payloadSize());
-            db.progress().addResourceProgress(resource.payloadSize());
             return resource.withId(id);
         });
+        if (saved.isRevisit()) {
+            revisits.increment();
+            if (priorDate != null) priorRevisits.increment();
+            revisitBytesSaved.add(responseBodyLength);
+        } else {
+            payloadIndex.add(saved);
+        }
+        hostIds.putHost(rhost, saved.hostId());
+        hostIds.putDomain(rdomain, saved.domainId());
+        statistics.resourceAdded(saved);
+        return saved;
     }
 }
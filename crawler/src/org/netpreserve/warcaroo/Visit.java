@@ -12,7 +12,7 @@ public class Visit {
     public static void main(String[] args) throws Exception {
         Url url = new Url(args[0]);
         try (var browserManager = new BrowserManager()) {
-            var worker = new Worker("visit", browserManager, null, null, null, null,
+            var worker = new Worker("visit", browserManager, null, null, null, null, null, null,
                     new Job(null, null));
             var visit = worker.visit(url);
 
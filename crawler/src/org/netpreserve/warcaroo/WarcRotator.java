@@ -1,19 +1,27 @@
 package org.netpreserve.warcaroo;
 
-import org.netpreserve.jwarc.WarcCompression;
-import org.netpreserve.jwarc.WarcWriter;
+import org.jetbrains.annotations.Nullable;
+import org.netpreserve.jwarc.WarcDigest;
+import org.netpreserve.jwarc.WarcRecord;
 import org.netpreserve.jwarc.Warcinfo;
+import org.netpreserve.warcaroo.config.Compression;
+import org.netpreserve.warcaroo.util.Url;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static java.nio.file.StandardOpenOption.*;
 
@@ -22,18 +30,49 @@ public class WarcRotator implements Closeable {
     private final String filenamePrefix;
     private final SecureRandom random = new SecureRandom();
     private final Path directory;
-    private WarcWriter warcWriter;
+    private final Compression compression;
+    private final ZstdDictionary dictionary;
+    private final boolean cdxjEnabled;
+    private final Path cdxjIndex;
+    private CdxjBuffer cdxj;
+    private Writer warcWriter;
     private String filename;
+    private Instant openedAt;
 
     public WarcRotator(Path directory, String filenamePrefix) {
+        this(directory, filenamePrefix, Compression.GZIP, null, false, null);
+    }
+
+    /**
+     * @param dictionary zstd dictionary, required if compression is ZSTD
+     * @param cdxj       write a sorted CDXJ index alongside each WARC file
+     * @param cdxjIndex  cumulative CDXJ index to merge each WARC's index into
+     */
+    public WarcRotator(Path directory, String filenamePrefix, Compression compression,
+                       @Nullable ZstdDictionary dictionary, boolean cdxj, @Nullable Path cdxjIndex) {
         this.directory = directory;
         this.filenamePrefix = filenamePrefix;
+        this.compression = compression;
+        this.dictionary = dictionary;
+        this.cdxjEnabled = cdxj;
+        this.cdxjIndex = cdxjIndex;
     }
 
     private void open() throws IOException {
-        filename = filenamePrefix + "-" + DATE_FORMAT.format(Instant.now()) + "-" + randomId() + ".warc.gz";
-        warcWriter = new WarcWriter(FileChannel.open(directory.resolve(filename),
-                WRITE, CREATE, TRUNCATE_EXISTING), WarcCompression.GZIP);
+        String extension = switch (compression) {
+            case NONE -> ".warc";
+            case GZIP -> ".warc.gz";
+            case ZSTD -> ".warc.zst";
+        };
+        openedAt = Instant.now();
+        filename = filenamePrefix + "-" + DATE_FORMAT.format(openedAt) + "-" + randomId() + extension;
+        if (cdxjEnabled) cdxj = new CdxjBuffer();
+        var channel = FileChannel.open(directory.resolve(filename), WRITE, CREATE, TRUNCATE_EXISTING);
+        warcWriter = switch (compression) {
+            case NONE -> new PlainWarcWriter(channel);
+            case GZIP -> new GzipWarcWriter(channel);
+            case ZSTD -> new ZstdWarcWriter(channel, dictionary);
+        };
         Warcinfo warcinfo = new Warcinfo.Builder()
                 .filename(filename)
                 .fields(Map.of("software", List.of("warcaroo"),
@@ -43,7 +82,7 @@ public class WarcRotator implements Closeable {
         warcWriter.write(warcinfo);
     }
 
-    public WarcWriter get() throws IOException {
+    public Writer get() throws IOException {
         if (warcWriter == null) {
             open();
         }
@@ -59,15 +98,104 @@ public class WarcRotator implements Closeable {
         return sb.toString();
     }
 
+    /**
+     * Adds a record just written to the current file to its CDXJ index.
+     */
+    public void index(Url url, Instant date, String mime, int status, WarcDigest digest, long offset, long length) {
+        if (cdxj != null) cdxj.add(url, date, mime, status, digest, filename, offset, length);
+    }
+
+    /**
+     * Returns true if the current file has reached the given size or has been open longer than the given age, or if
+     * it was started without the zstd dictionary and the dictionary has since been trained.
+     */
+    public boolean shouldRotate(long maxSize, @Nullable Duration maxAge) throws IOException {
+        if (warcWriter == null) return false;
+        if (warcWriter.position() >= maxSize) return true;
+        if (warcWriter instanceof ZstdWarcWriter zstdWriter && !zstdWriter.hasDictionary()
+            && dictionary.trained() != null) return true;
+        return maxAge != null && openedAt.plus(maxAge).isBefore(Instant.now());
+    }
+
+    /**
+     * Detaches the current file so that the next write starts a new one and finishes it (closing it and writing its
+     * CDXJ index) on the given executor.
+     */
+    public CompletableFuture<Void> rotate(Executor executor) {
+        if (warcWriter == null) return CompletableFuture.completedFuture(null);
+        var file = detach();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                file.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error finishing " + file.path, e);
+            }
+        }, executor);
+    }
+
     @Override
     public void close() throws IOException {
-        if (warcWriter != null) {
-            warcWriter.close();
-            warcWriter = null;
+        if (warcWriter != null) detach().finish();
+    }
+
+    private OpenFile detach() {
+        var file = new OpenFile(warcWriter, directory.resolve(filename), cdxj, cdxjIndex);
+        warcWriter = null;
+        cdxj = null;
+        return file;
+    }
+
+    private record OpenFile(Writer writer, Path path, @Nullable CdxjBuffer cdxj, @Nullable Path cdxjIndex) {
+        void finish() throws IOException {
+            writer.close();
+            if (cdxj != null && !cdxj.isEmpty()) {
+                String name = path.getFileName().toString();
+                Path cdxjFile = path.resolveSibling(name.replaceFirst("\\.warc(\\.gz|\\.zst)?$", "") + ".cdxj");
+                cdxj.write(cdxjFile);
+                if (cdxjIndex != null) CdxjBuffer.merge(cdxjFile, cdxjIndex);
+            }
         }
     }
 
     public String filename() {
         return filename;
     }
+
+    /**
+     * Returns the path of the current file.
+     */
+    public Path path() {
+        return directory.resolve(filename);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Returns true if a file is currently open.
+     */
+    public boolean isOpen() {
+        return warcWriter != null;
+    }
+
+    /**
+     * Writes records to the current WARC file.
+     */
+    public interface Writer extends Closeable {
+        void write(WarcRecord record) throws IOException;
+
+        /**
+         * Writes a record whose block is the given header followed by the contents of a channel. The record's own
+         * body must contain the same bytes, it's used by writers that can't do anything better than copy it.
+         */
+        default void write(WarcRecord record, byte[] blockHeader, SeekableByteChannel blockBody) throws IOException {
+            write(record);
+        }
+
+        /**
+         * Returns the (compressed) file position the next record will be written at.
+         */
+        long position() throws IOException;
+    }
 }
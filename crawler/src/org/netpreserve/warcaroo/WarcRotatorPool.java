@@ -0,0 +1,163 @@
+package org.netpreserve.warcaroo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Pool of WARC rotators spread across one or more output directories, typically each on its own disk.
+ * <p>
+ * {@link #take()} picks an idle rotator from the directory with the fewest writes in progress and, among those, the
+ * most free space, so that writes are striped across the disks. Directories with less than {@code minFreeSpace} left
+ * are only used once every directory is that full. Ties go to a rotator which already has a file open to keep the
+ * number of partially written files down.
+ */
+class WarcRotatorPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WarcRotatorPool.class);
+    private static final long FREE_SPACE_REFRESH_NANOS = 1_000_000_000L;
+
+    private final List<WarcRotator> idle = new ArrayList<>();
+    private final Map<WarcRotator, Directory> owners = new IdentityHashMap<>();
+    private final long minFreeSpace;
+    private final int size;
+    private boolean closed;
+
+    /**
+     * @param rotatorsPerDirectory number of files written concurrently in each directory
+     * @param minFreeSpace         avoid directories with less free space than this (e.g. the rotation size)
+     * @param factory              creates a rotator writing to the given directory
+     */
+    WarcRotatorPool(List<Path> directories, int rotatorsPerDirectory, long minFreeSpace,
+                    Function<Path, WarcRotator> factory) throws IOException {
+        if (directories.isEmpty()) throw new IllegalArgumentException("at least one directory is required");
+        this.minFreeSpace = minFreeSpace;
+        var dirs = new ArrayList<Directory>();
+        for (Path path : directories) {
+            Files.createDirectories(path);
+            dirs.add(new Directory(path, Files.getFileStore(path)));
+        }
+        // interleave so that the initial order alternates between directories
+        for (int i = 0; i < rotatorsPerDirectory; i++) {
+            for (Directory directory : dirs) {
+                var rotator = factory.apply(directory.path);
+                owners.put(rotator, directory);
+                idle.add(rotator);
+            }
+        }
+        this.size = idle.size();
+    }
+
+    /**
+     * Takes an idle rotator, waiting for one to be released if necessary.
+     */
+    synchronized WarcRotator take() throws InterruptedException {
+        while (idle.isEmpty()) wait();
+        long now = System.nanoTime();
+        int best = -1;
+        for (int i = 0; i < idle.size(); i++) {
+            if (best < 0 || isBetter(idle.get(i), idle.get(best), now)) best = i;
+        }
+        var rotator = idle.remove(best);
+        owners.get(rotator).active++;
+        return rotator;
+    }
+
+    private boolean isBetter(WarcRotator a, WarcRotator b, long now) {
+        Directory dirA = owners.get(a);
+        Directory dirB = owners.get(b);
+        if (dirA != dirB) {
+            long freeA = dirA.freeSpace(now);
+            long freeB = dirB.freeSpace(now);
+            boolean fullA = freeA < minFreeSpace;
+            boolean fullB = freeB < minFreeSpace;
+            if (fullA != fullB) return fullB;
+            if (dirA.active != dirB.active) return dirA.active < dirB.active;
+            if (freeA != freeB) return freeA > freeB;
+        }
+        return a.isOpen() && !b.isOpen();
+    }
+
+    /**
+     * Returns a rotator taken with {@link #take()}.
+     */
+    synchronized void release(WarcRotator rotator) {
+        owners.get(rotator).active--;
+        idle.add(rotator);
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of rotators not currently in use.
+     */
+    synchronized int available() {
+        return idle.size();
+    }
+
+    /**
+     * Waits for every rotator to be released and closes them.
+     */
+    @Override
+    public void close() throws IOException {
+        List<WarcRotator> rotators;
+        synchronized (this) {
+            if (closed) return;
+            try {
+                while (idle.size() < size) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for WARC writers", e);
+            }
+            rotators = new ArrayList<>(idle);
+            idle.clear();
+            closed = true;
+        }
+        IOException exception = null;
+        for (WarcRotator rotator : rotators) {
+            try {
+                rotator.close();
+            } catch (IOException e) {
+                log.error("Error closing WARC in {}", rotator.directory(), e);
+                if (exception == null) exception = e;
+            }
+        }
+        if (exception != null) throw exception;
+    }
+
+    private static class Directory {
+        private final Path path;
+        private final FileStore store;
+        private int active;
+        private long freeSpace;
+        private long freeSpaceCheckedAt;
+        private boolean checked;
+
+        Directory(Path path, FileStore store) {
+            this.path = path;
+            this.store = store;
+        }
+
+        long freeSpace(long now) {
+            if (!checked || now - freeSpaceCheckedAt > FREE_SPACE_REFRESH_NANOS) {
+                try {
+                    freeSpace = store.getUsableSpace();
+                } catch (IOException e) {
+                    log.warn("Unable to check free space of {}", path, e);
+                    freeSpace = 0;
+                }
+                freeSpaceCheckedAt = now;
+                checked = true;
+            }
+            return freeSpace;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class Worker {
     private static final Logger log = LoggerFactory.getLogger(Worker.class);
@@ -23,7 +24,9 @@ public class Worker {
     private final BrowserManager browserManager;
     private final Frontier frontier;
     private final Storage storage;
-    private final Database db;
+    private final CapturePipeline capturePipeline;
+    private final DatabaseWriter writer;
+    private final Statistics statistics;
     private final RobotsTxtChecker robotsTxtChecker;
     private final Job job;
     private Thread thread;
@@ -33,12 +36,16 @@ public class Worker {
     private volatile Info info;
     private FrontierUrl frontierUrl;
 
-    public Worker(String id, BrowserManager browserManager, Frontier frontier, Storage storage, Database db, RobotsTxtChecker robotsTxtChecker, Job job) {
+    public Worker(String id, BrowserManager browserManager, Frontier frontier, Storage storage,
+                  CapturePipeline capturePipeline, DatabaseWriter writer, Statistics statistics,
+                  RobotsTxtChecker robotsTxtChecker, Job job) {
         this.id = id;
         this.browserManager = browserManager;
         this.frontier = frontier;
         this.storage = storage;
-        this.db = db;
+        this.capturePipeline = capturePipeline;
+        this.writer = writer;
+        this.statistics = statistics;
         this.robotsTxtChecker = robotsTxtChecker;
         this.job = job;
         info = new Info(id, null, null, Instant.now());
@@ -56,13 +63,24 @@ public class Worker {
             hopType = "S";
         }
         outlinks.add(new OutLink(resource.url(), hopType, "=" + resource.type().value(), true));
-        try {
-            if (storage != null && pageId != null) storage.save(pageId, resource, null);
-        } catch (IOException e) {
-            log.error("Failed to save resource", e);
+        Long pageId = this.pageId;
+        if (capturePipeline != null && pageId != null) {
+            capturePipeline.submit(pageId, resource);
+        } else {
+            resource.close();
         }
     }
 
+    /**
+     * Queues an update to a page row without waiting for it to be committed.
+     */
+    private void updatePage(long pageId, Consumer<Database> update) {
+        writer.execute(update).exceptionally(e -> {
+            log.error("Failed to update page {}", pageId, e);
+            return null;
+        });
+    }
+
     public void closeAsyncGraceful() {
         closed = true;
     }
@@ -103,7 +121,10 @@ public class Worker {
                 continue;
             }
 
-            pageId = db.pages().create(frontierUrl.url(), frontierUrl.hostId(), frontierUrl.domainId(), Instant.now());
+            long pageId = writer.call(db -> db.pages().insert(frontierUrl.url(), frontierUrl.hostId(),
+                    frontierUrl.domainId(), Instant.now()));
+            this.pageId = pageId;
+            statistics.pageAdded(frontierUrl.hostId(), frontierUrl.domainId());
 
             updateInfo(new Info(id, pageId, frontierUrl.url(), Instant.now()));
 
@@ -124,20 +145,18 @@ public class Worker {
                 frontier.addUrls(urlsToEnqueue, frontierUrl.depth() + 1, frontierUrl.url());
 
                 // Update the database
-                db.pages().finish(pageId, navigator.title(), visit.visitTimeMs(), visit.mainResourceId());
+                String title = navigator.title();
+                updatePage(pageId, db -> db.pages().finish(pageId, title, visit.visitTimeMs(),
+                        visit.mainResourceId()));
                 frontier.release(frontierUrl, FrontierUrl.State.CRAWLED);
             } catch (NavigationException e) {
                 log.error("NavigationException {}", e.getMessage());
-                db.pages().error(pageId, e);
-                synchronized (frontier) {
-                    frontier.release(frontierUrl, FrontierUrl.State.FAILED);
-                }
+                updatePage(pageId, db -> db.pages().error(pageId, e));
+                frontier.release(frontierUrl, FrontierUrl.State.FAILED);
             } catch (Throwable e) {
-                db.pages().error(pageId, e);
+                updatePage(pageId, db -> db.pages().error(pageId, e));
                 if (closed) return;
-                synchronized (frontier) {
-                    frontier.release(frontierUrl, FrontierUrl.State.FAILED);
-                }
+                frontier.release(frontierUrl, FrontierUrl.State.FAILED);
                 throw e;
             } finally {
                 log.info("Finished worker {} for {} [{}]", id, frontierUrl.url(), pageId);
@@ -155,6 +174,7 @@ public class Worker {
 
         if (navigator == null) {
             navigator = browserManager.newWindow(this::handleSubresource, null);
+            navigator.networkManager().bufferResponseBodies(job.bodyMemoryLimit(), job.bodyTempDir());
         }
         navigator.setUserAgent(job.config().crawl().userAgent());
         if (job.config().resources() != null) {
@@ -0,0 +1,108 @@
+package org.netpreserve.warcaroo;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The zstd dictionary shared by all the WARC writers of a crawl.
+ * <p>
+ * It's trained from samples of the first records written and then saved so later runs of the crawl use the same
+ * dictionary. Training runs on a background thread so writers aren't held up by it. Until it's finished, records are
+ * compressed without a dictionary.
+ */
+public class ZstdDictionary {
+    private static final Logger log = LoggerFactory.getLogger(ZstdDictionary.class);
+    static final int DICTIONARY_SIZE = 112640;
+    static final int MAX_SAMPLE_SIZE = 128 * 1024;
+    static final int LEVEL = 3;
+
+    private final Path file;
+    private final CompletableFuture<Void> trainingFinished = new CompletableFuture<>();
+    private volatile ZstdDictTrainer trainer;
+    private volatile Trained trained;
+
+    /**
+     * @param file         where the trained dictionary is saved
+     * @param trainingSize number of bytes of samples to train on, or 0 to not use a dictionary
+     */
+    public ZstdDictionary(Path file, long trainingSize) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            setDictionary(Files.readAllBytes(file));
+        } else if (trainingSize > 0) {
+            trainer = new ZstdDictTrainer((int) Math.min(trainingSize, Integer.MAX_VALUE), DICTIONARY_SIZE);
+        }
+        if (trainer == null) trainingFinished.complete(null);
+    }
+
+    /**
+     * Returns the dictionary, or null if it's not trained yet.
+     */
+    public @Nullable Trained trained() {
+        return trained;
+    }
+
+    /**
+     * Returns true while samples are still wanted.
+     */
+    public boolean training() {
+        return trainer != null;
+    }
+
+    /**
+     * Adds a sample of an uncompressed record. Once enough samples have been collected no more are accepted and the
+     * dictionary is trained in the background.
+     */
+    public synchronized void addSample(byte[] sample) {
+        if (trainer == null) return;
+        if (!trainer.addSample(sample)) {
+            var full = trainer;
+            trainer = null;
+            Thread.ofPlatform().name("zstd-dictionary-trainer").daemon().start(() -> train(full));
+        }
+    }
+
+    /**
+     * Waits until training has finished (or failed), or returns immediately if there's nothing to train.
+     */
+    void awaitTraining(Duration timeout) throws InterruptedException, ExecutionException, TimeoutException {
+        trainingFinished.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void train(ZstdDictTrainer trainer) {
+        try {
+            byte[] trained = trainer.trainSamples();
+            Files.write(file, trained);
+            setDictionary(trained);
+            log.info("Trained {} byte zstd dictionary", trained.length);
+        } catch (ZstdException | IOException e) {
+            log.warn("Failed to train zstd dictionary, continuing without one", e);
+        } finally {
+            trainingFinished.complete(null);
+        }
+    }
+
+    private void setDictionary(byte[] dictionary) {
+        this.trained = new Trained(dictionary, new ZstdDictCompress(dictionary, LEVEL));
+    }
+
+    /**
+     * @param bytes    the dictionary as stored in the WARC file
+     * @param compress the dictionary prepared for compression
+     */
+    public record Trained(byte[] bytes, ZstdDictCompress compress) {
+    }
+}
@@ -0,0 +1,108 @@
+package org.netpreserve.warcaroo;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.netpreserve.jwarc.WarcRecord;
+import org.netpreserve.warcaroo.util.ZstdWarc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes WARC records compressed with zstd, each as a separate frame, as described by the IIPC zstd WARC draft.
+ * If the dictionary is available when the file is opened it's written at the start of the file and used for every
+ * record.
+ */
+class ZstdWarcWriter implements WarcRotator.Writer {
+    private static final byte[] TRAILER = "\r\n\r\n".getBytes(US_ASCII);
+
+    private final FileChannel channel;
+    private final ZstdDictionary dictionary;
+    private final ZstdDictCompress compressDictionary;
+    private final OutputStream output;
+    private final byte[] buffer = new byte[65536];
+
+    ZstdWarcWriter(FileChannel channel, ZstdDictionary dictionary) throws IOException {
+        this.channel = channel;
+        this.dictionary = dictionary;
+        var trained = dictionary.trained();
+        this.compressDictionary = trained == null ? null : trained.compress();
+        // closing each frame's ZstdOutputStream must not close the channel
+        this.output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b});
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                var src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) channel.write(src);
+            }
+        };
+        if (trained != null) {
+            var header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(ZstdWarc.DICTIONARY_MAGIC).putInt(trained.bytes().length);
+            output.write(header.array());
+            output.write(trained.bytes());
+        }
+    }
+
+    boolean hasDictionary() {
+        return compressDictionary != null;
+    }
+
+    @Override
+    public void write(WarcRecord record) throws IOException {
+        var sample = dictionary.training() ? new Sample() : null;
+        try (var zstd = new ZstdOutputStream(output, ZstdDictionary.LEVEL)) {
+            if (compressDictionary != null) zstd.setDict(compressDictionary);
+            byte[] header = record.serializeHeader();
+            zstd.write(header);
+            if (sample != null) sample.add(header, header.length);
+            InputStream body = record.body().stream();
+            for (int n = body.read(buffer); n >= 0; n = body.read(buffer)) {
+                zstd.write(buffer, 0, n);
+                if (sample != null) sample.add(buffer, n);
+            }
+            zstd.write(TRAILER);
+        }
+        if (sample != null) dictionary.addSample(sample.bytes());
+    }
+
+    @Override
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Sample {
+        private byte[] data = new byte[8192];
+        private int length;
+
+        void add(byte[] bytes, int n) {
+            n = Math.min(n, ZstdDictionary.MAX_SAMPLE_SIZE - length);
+            if (n <= 0) return;
+            if (length + n > data.length) {
+                data = Arrays.copyOf(data, Math.min(ZstdDictionary.MAX_SAMPLE_SIZE, Math.max(length + n, data.length * 2)));
+            }
+            System.arraycopy(bytes, 0, data, length, n);
+            length += n;
+        }
+
+        byte[] bytes() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.netpreserve.warcaroo.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+public enum Compression {
+    NONE, GZIP, ZSTD;
+
+    @JsonCreator
+    public static Compression fromString(String value) {
+        return value == null ? null : valueOf(value.toUpperCase());
+    }
+}
@@ -12,6 +12,7 @@ import org.jetbrains.annotations.Nullable;
  * @param perHost   per-host limits (pages, bytes)
  * @param depth     maximum link depth from any seed
  * @param delay     milliseconds to wait between requests
+ * @param seenUrlFilter sizing of the in-memory filter of already seen URLs
  */
 public record CrawlConfig(
         String userAgent,
@@ -19,5 +20,6 @@ public record CrawlConfig(
         LocalLimitsConfig perDomain,
         LocalLimitsConfig perHost,
         @Nullable Integer depth,
-        int delay) {
-}
\ No newline at end of file
+        int delay,
+        SeenUrlFilterConfig seenUrlFilter) {
+}
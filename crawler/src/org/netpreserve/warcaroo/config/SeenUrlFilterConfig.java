@@ -0,0 +1,20 @@
+package org.netpreserve.warcaroo.config;
+
+/**
+ * Sizing of the Bloom filter used to skip database lookups for URLs that have never been seen before.
+ *
+ * @param expectedUrls      number of frontier URLs to size the filter for (default 10 million)
+ * @param falsePositiveRate target probability that an unseen URL is reported as seen (default 0.01)
+ */
+public record SeenUrlFilterConfig(
+        Long expectedUrls,
+        Double falsePositiveRate
+) {
+    public long expectedUrlsOrDefault() {
+        return expectedUrls != null ? expectedUrls : 10_000_000L;
+    }
+
+    public double falsePositiveRateOrDefault() {
+        return falsePositiveRate != null ? falsePositiveRate : 0.01;
+    }
+}
@@ -1,11 +1,45 @@
 package org.netpreserve.warcaroo.config;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.netpreserve.warcaroo.util.jackson.ByteSizeDeserializer;
+import org.netpreserve.warcaroo.util.jackson.DurationDeserializer;
+
+import java.time.Duration;
+import java.util.List;
+
 /**
  * Storage configuration.
  *
- * @param prefix output filename prefix
+ * @param prefix                 output filename prefix
+ * @param memoryBufferSize       response bodies up to this size are buffered in memory, larger ones in a temporary file
+ * @param tempDir                directory for temporary files (e.g. a tmpfs), relative to the job directory, defaults
+ *                               to downloads
+ * @param compression            WARC compression format (none, gzip or zstd), defaults to gzip
+ * @param dictionaryTrainingSize for zstd, train a dictionary from this many bytes of the first records written
+ * @param cdxj                   write a sorted CDXJ index alongside each WARC file, defaults to true
+ * @param cdxjIndex              cumulative CDXJ index (relative to the warcs directory) to merge each WARC's index into
+ * @param directories            WARC output directories (relative to the job directory), writes are spread across
+ *                               them by free space and load, defaults to warcs
+ * @param rotateSize             start a new WARC file once the current one reaches this size, defaults to 1GB
+ * @param rotateTime             start a new WARC file once the current one has been open this long
+ * @param priorCaptures          CDXJ or CDX indexes or db.sqlite3 files of previous crawls, payloads they already
+ *                               contain for the same URL are written as revisit records
  */
 public record StorageConfig(
-        String prefix
+        String prefix,
+        @JsonDeserialize(using = ByteSizeDeserializer.class)
+        Long memoryBufferSize,
+        String tempDir,
+        Compression compression,
+        @JsonDeserialize(using = ByteSizeDeserializer.class)
+        Long dictionaryTrainingSize,
+        Boolean cdxj,
+        String cdxjIndex,
+        List<String> priorCaptures,
+        List<String> directories,
+        @JsonDeserialize(using = ByteSizeDeserializer.class)
+        Long rotateSize,
+        @JsonDeserialize(using = DurationDeserializer.class)
+        Duration rotateTime
 ) {
 }
@@ -1,29 +1,51 @@
 package org.netpreserve.warcaroo.db;
 
+import org.jdbi.v3.sqlobject.config.KeyColumn;
 import org.jdbi.v3.sqlobject.config.RegisterConstructorMapper;
+import org.jdbi.v3.sqlobject.config.ValueColumn;
 import org.jdbi.v3.sqlobject.customizer.BindFields;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.customizer.BindMethods;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
-import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.netpreserve.warcaroo.Domain;
-import org.netpreserve.warcaroo.FrontierUrl;
+import org.netpreserve.warcaroo.Statistics;
 import org.netpreserve.warcaroo.webapp.Webapp;
 
+import java.util.Collection;
+import java.util.Map;
+
 @RegisterConstructorMapper(Domain.class)
 public interface DomainDAO {
     @SqlQuery("INSERT INTO domains (rhost) VALUES (:rhost) ON CONFLICT (rhost) DO UPDATE SET rhost = excluded.rhost RETURNING id")
     long insertOrGetId(String rhost);
 
-    @SqlUpdate("UPDATE domains SET pending = pending + 1 WHERE id = ?")
-    void incrementPending(long hostId);
+    @SqlBatch("INSERT INTO domains (rhost) VALUES (:rhost) ON CONFLICT (rhost) DO NOTHING")
+    void insertIfAbsent(Collection<String> rhost);
+
+    @SqlQuery("SELECT rhost, id FROM domains WHERE rhost IN (<rhosts>)")
+    @KeyColumn("rhost")
+    @ValueColumn("id")
+    Map<String, Long> findIds(@BindList Collection<String> rhosts);
+
+    @SqlQuery("SELECT rhost, id FROM domains ORDER BY id DESC LIMIT :limit")
+    @KeyColumn("rhost")
+    @ValueColumn("id")
+    Map<String, Long> findRecentIds(int limit);
 
-    @SqlUpdate("""
+    @SqlBatch("""
             UPDATE domains
-            SET pending = pending + iif(:newState = 'PENDING', 1, 0) - iif(:oldState = 'PENDING', 1, 0),
-                failed = failed + iif(:newState = 'FAILED', 1, 0) - iif(:oldState = 'FAILED', 1, 0),
-                robots_excluded = robots_excluded + iif(:newState = 'ROBOTS_EXCLUDED', 1, 0) - iif(:oldState = 'ROBOTS_EXCLUDED', 1, 0)
-            WHERE id = :domainId
+            SET pending = pending + :pending,
+                failed = failed + :failed,
+                robots_excluded = robots_excluded + :robotsExcluded,
+                pages = pages + :pages,
+                resources = resources + :resources,
+                size = size + :size,
+                transferred = transferred + :transferred,
+                storage = storage + :storage
+            WHERE id = :id
             """)
-    void updateMetricsOnFrontierUrlStateChange(long domainId, FrontierUrl.State oldState, FrontierUrl.State newState);
+    void addStatistics(@BindMethods Collection<Statistics.Delta> deltas);
 
     @SqlQuery("SELECT * FROM domains WHERE id = ?")
     Domain find(long domainId);
@@ -2,7 +2,7 @@ package org.netpreserve.warcaroo.db;
 
 import org.jdbi.v3.sqlobject.config.RegisterConstructorMapper;
 import org.jdbi.v3.sqlobject.customizer.*;
-import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.jdbi.v3.sqlobject.transaction.Transactional;
@@ -13,6 +13,7 @@ import org.netpreserve.warcaroo.webapp.Webapp;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 
 @RegisterConstructorMapper(FrontierUrl.class)
 public interface FrontierDAO extends Transactional<FrontierDAO> {
@@ -23,8 +24,8 @@ public interface FrontierDAO extends Transactional<FrontierDAO> {
     @MustUpdate
     void updateState(long id, FrontierUrl.State state);
 
-    @SqlQuery("SELECT * FROM frontier WHERE host_id = :hostId AND state = 'PENDING' ORDER BY depth, id LIMIT 1")
-    FrontierUrl nextUrlForHost(long hostId);
+    @SqlQuery("SELECT * FROM frontier WHERE host_id = :hostId AND state = 'PENDING' ORDER BY depth, id LIMIT :limit")
+    List<FrontierUrl> nextUrlsForHost(long hostId, int limit);
 
     String FRONTIER_WHERE = """
             WHERE (:depth IS NULL OR depth = :depth)
@@ -34,23 +35,32 @@ public interface FrontierDAO extends Transactional<FrontierDAO> {
     @SqlQuery("SELECT COUNT(*) FROM frontier\n" + FRONTIER_WHERE)
     long count(@BindFields Webapp.FrontierQuery query);
 
+    @SqlQuery("SELECT COUNT(*) FROM (SELECT 1 FROM frontier\n" + FRONTIER_WHERE + "LIMIT :max)")
+    long countUpTo(@BindFields Webapp.FrontierQuery query, long max);
+
     @SqlQuery("""
         SELECT * FROM frontier
         """ + FRONTIER_WHERE + """ 
-        <orderBy> LIMIT :limit OFFSET (:page - 1) * :limit
+        <keyset> <orderBy> LIMIT :limit OFFSET CASE WHEN :after IS NULL THEN (:page - 1) * :limit ELSE 0 END
         """)
-    List<FrontierUrl> query(@Define String orderBy, @BindFields Webapp.FrontierQuery query);
+    List<FrontierUrl> query(@Define String orderBy, @Define String keyset, @BindFields Webapp.FrontierQuery query);
 
     @SqlQuery("SELECT * FROM frontier WHERE url = ?")
     FrontierUrl findByUrl(Url url);
 
-    @SqlQuery("SELECT id FROM frontier WHERE url = ?")
-    Long findUrl(Url url);
+    @SqlQuery("SELECT url FROM frontier")
+    void forEachUrl(Consumer<String> consumer);
+
+    @SqlQuery("SELECT url FROM frontier WHERE url IN (<urls>)")
+    Set<Url> findExistingUrls(@BindList Collection<Url> urls);
 
-    @SqlUpdate("""
+    /**
+     * Inserts a batch of URLs. Returns the number of rows inserted for each URL, which is 0 if it was already present.
+     */
+    @SqlBatch("""
             INSERT INTO frontier (depth, url, host_id, domain_id, via, time_added, state)
             VALUES (:depth, :url, :hostId, :domainId, :via, :timeAdded, :state)
             ON CONFLICT(url) DO NOTHING""")
-    @GetGeneratedKeys
-    Long addUrl0(Url url, long hostId, long domainId, int depth, Url via, Instant timeAdded, FrontierUrl.State state);
+    int[] addUrls(List<Url> url, List<Long> hostId, List<Long> domainId, int depth, Url via, Instant timeAdded,
+                  FrontierUrl.State state);
 }
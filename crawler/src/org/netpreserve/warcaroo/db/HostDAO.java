@@ -1,19 +1,24 @@
 package org.netpreserve.warcaroo.db;
 
+import org.jdbi.v3.sqlobject.config.KeyColumn;
 import org.jdbi.v3.sqlobject.config.RegisterConstructorMapper;
+import org.jdbi.v3.sqlobject.config.ValueColumn;
 import org.jdbi.v3.sqlobject.customizer.BindFields;
 import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.customizer.BindMethods;
 import org.jdbi.v3.sqlobject.customizer.Define;
 import org.jdbi.v3.sqlobject.customizer.DefineNamedBindings;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
-import org.netpreserve.warcaroo.FrontierUrl;
 import org.netpreserve.warcaroo.Host;
+import org.netpreserve.warcaroo.Statistics;
 import org.netpreserve.warcaroo.webapp.Webapp;
 
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @RegisterConstructorMapper(Host.class)
 public interface HostDAO {
@@ -23,23 +28,40 @@ public interface HostDAO {
     @SqlQuery("INSERT INTO hosts (rhost) VALUES (:rhost) ON CONFLICT (rhost) DO UPDATE SET rhost = excluded.rhost RETURNING id")
     long insertOrGetId(String rhost);
 
-    @SqlQuery("SELECT id FROM hosts WHERE next_visit < :now AND id NOT IN (<excluded>) ORDER BY next_visit LIMIT 1")
-    Long findNextToVisit(Instant now, @BindList(value = "excluded", onEmpty = BindList.EmptyHandling.VOID) Collection<Long> excluded);
+    @SqlBatch("INSERT INTO hosts (rhost) VALUES (:rhost) ON CONFLICT (rhost) DO NOTHING")
+    void insertIfAbsent(Collection<String> rhost);
 
-    @SqlUpdate("""
+    @SqlQuery("SELECT rhost, id FROM hosts WHERE rhost IN (<rhosts>)")
+    @KeyColumn("rhost")
+    @ValueColumn("id")
+    Map<String, Long> findIds(@BindList Collection<String> rhosts);
+
+    @SqlQuery("SELECT rhost, id FROM hosts ORDER BY id DESC LIMIT :limit")
+    @KeyColumn("rhost")
+    @ValueColumn("id")
+    Map<String, Long> findRecentIds(int limit);
+
+    @SqlQuery("SELECT id, next_visit FROM hosts WHERE next_visit IS NOT NULL")
+    @KeyColumn("id")
+    @ValueColumn("next_visit")
+    Map<Long, Instant> findScheduled();
+
+    @SqlBatch("UPDATE hosts SET next_visit = 0 WHERE id = :id AND next_visit IS NULL")
+    void initNextVisit(Collection<Long> id);
+
+    @SqlBatch("""
             UPDATE hosts
-            SET last_visit = :now,
-                next_visit = :nextVisit,
-                pending = pending + iif(:newState = 'PENDING', 1, 0) - iif(:oldState = 'PENDING', 1, 0),
-                failed = failed + iif(:newState = 'FAILED', 1, 0) - iif(:oldState = 'FAILED', 1, 0),
-                robots_excluded = robots_excluded + iif(:newState = 'ROBOTS_EXCLUDED', 1, 0) - iif(:oldState = 'ROBOTS_EXCLUDED', 1, 0)
-            WHERE id = :hostId
+            SET pending = pending + :pending,
+                failed = failed + :failed,
+                robots_excluded = robots_excluded + :robotsExcluded,
+                pages = pages + :pages,
+                resources = resources + :resources,
+                size = size + :size,
+                transferred = transferred + :transferred,
+                storage = storage + :storage
+            WHERE id = :id
             """)
-    void updateOnFrontierUrlStateChange(long hostId, FrontierUrl.State oldState, FrontierUrl.State newState,
-                                        Instant now, Instant nextVisit);
-
-    @SqlUpdate("UPDATE hosts SET pending = pending + 1, next_visit = coalesce(next_visit, 0) WHERE id = ?")
-    void incrementPendingAndInitNextVisit(long hostId);
+    void addStatistics(@BindMethods Collection<Statistics.Delta> deltas);
 
     @SqlUpdate("UPDATE hosts SET last_visit = :now, next_visit = :nextVisit WHERE id = :id")
     void updateNextVisit(long id, Instant now, Instant nextVisit);
@@ -47,12 +69,15 @@ public interface HostDAO {
     @SqlQuery("SELECT COUNT(*) FROM hosts " + HOSTS_WHERE)
     long count(@BindFields Webapp.HostsQuery query);
 
+    @SqlQuery("SELECT COUNT(*) FROM (SELECT 1 FROM hosts " + HOSTS_WHERE + "LIMIT :max)")
+    long countUpTo(@BindFields Webapp.HostsQuery query, long max);
+
     @SqlQuery("""
             SELECT * FROM hosts
             """ + HOSTS_WHERE + """
-            <orderBy> LIMIT :limit OFFSET (:page - 1) * :limit""")
+            <keyset> <orderBy> LIMIT :limit OFFSET CASE WHEN :after IS NULL THEN (:page - 1) * :limit ELSE 0 END""")
     @DefineNamedBindings
-    List<Host> queryHosts(@Define String orderBy, @BindFields Webapp.HostsQuery query);
+    List<Host> queryHosts(@Define String orderBy, @Define String keyset, @BindFields Webapp.HostsQuery query);
 
     String HOSTS_WHERE = """
             WHERE (:rhost IS NULL OR rhost GLOB :rhost)
@@ -7,7 +7,6 @@ import org.jdbi.v3.sqlobject.customizer.Define;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
-import org.jdbi.v3.sqlobject.transaction.Transaction;
 import org.netpreserve.warcaroo.Page;
 import org.netpreserve.warcaroo.util.MustUpdate;
 import org.netpreserve.warcaroo.util.Url;
@@ -23,15 +22,7 @@ import java.util.List;
 public interface PageDAO {
     @SqlUpdate("INSERT INTO pages (url, host_id, domain_id, date) VALUES (:url, :hostId, :domainId, :date)")
     @GetGeneratedKeys
-    long _create(Url url, long hostId, long domainId, Instant date);
-
-    @Transaction
-    default long create(Url url, long hostId, long domainId, Instant date) {
-        long id = _create(url, hostId, domainId, date);
-        _addPageToHost(hostId);
-        _addPageToDomain(domainId);
-        return id;
-    }
+    long insert(Url url, long hostId, long domainId, Instant date);
 
     @SqlUpdate("""
                UPDATE pages
@@ -46,26 +37,23 @@ public interface PageDAO {
                "VALUES (:id, :url, :date, :title, :visitTimeMs, :hostId, :domainId)")
     void _addPage(@BindMethods Page page);
 
-    @SqlUpdate("UPDATE hosts SET pages = pages + 1 WHERE id = :hostId")
-    @MustUpdate
-    void _addPageToHost(long hostId);
-
-    @SqlUpdate("UPDATE domains SET pages = pages + 1 WHERE id = :domainId")
-    @MustUpdate
-    void _addPageToDomain(long domainId);
-
     String PAGES_WHERE = " WHERE (:hostId IS NULL OR pages.host_id = :hostId) ";
 
     @SqlQuery("SELECT COUNT(*) FROM pages " + PAGES_WHERE)
     long count(@BindFields Webapp.PagesQuery query);
 
-    @SqlQuery("""
-            SELECT pages.*, r.status
-            FROM pages
-            LEFT JOIN resources r ON r.id = pages.main_resource_id
-            """ + PAGES_WHERE + """
-            <orderBy> LIMIT :limit OFFSET :offset""")
-    List<Page.Ext> query(@BindFields Webapp.PagesQuery query, @Define String orderBy, int limit, long offset);
+    @SqlQuery("SELECT COUNT(*) FROM (SELECT 1 FROM pages " + PAGES_WHERE + "LIMIT :max)")
+    long countUpTo(@BindFields Webapp.PagesQuery query, long max);
+
+    /**
+     * FROM clause of {@link #query}, which adds the main resource's status.
+     */
+    String PAGES_FROM = "pages LEFT JOIN resources r ON r.id = pages.main_resource_id";
+
+    @SqlQuery("SELECT pages.*, r.status FROM " + PAGES_FROM + PAGES_WHERE + """
+            <keyset> <orderBy> LIMIT :limit OFFSET :offset""")
+    List<Page.Ext> query(@BindFields Webapp.PagesQuery query, @Define String orderBy, @Define String keyset, int limit,
+                         long offset);
 
     default void error(long pageId, Throwable e) {
         var buffer = new StringWriter();
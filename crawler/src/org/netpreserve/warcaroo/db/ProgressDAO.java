@@ -9,20 +9,16 @@ import java.time.Instant;
 
 @RegisterConstructorMapper(Progress.class)
 public interface ProgressDAO {
-    @SqlUpdate("UPDATE progress SET resources = resources + 1, size = size + :size WHERE id = 0")
-    void addResourceProgress(long size);
-
-    @SqlUpdate("UPDATE progress SET discovered = discovered + 1, pending = pending + 1 WHERE id = 0")
-    void incrementPendingAndDiscovered();
-
-    @SqlUpdate("UPDATE progress SET pending = pending - 1, crawled = crawled + 1 WHERE id = 0")
-    void decrementPendingAndIncrementCrawled();
-
-    @SqlUpdate("UPDATE progress SET pending = pending - 1, failed = failed + 1 WHERE id = 0")
-    void decrementPendingAndIncrementFailed();
-
-    @SqlUpdate("UPDATE progress SET pending = pending - 1 WHERE id = 0")
-    void decrementPending();
+    @SqlUpdate("""
+            UPDATE progress
+            SET discovered = discovered + :discovered,
+                pending = pending + :pending,
+                crawled = crawled + :crawled,
+                failed = failed + :failed,
+                resources = resources + :resources,
+                size = size + :size
+            WHERE id = 0""")
+    void addStatistics(long discovered, long pending, long crawled, long failed, long resources, long size);
 
     @SqlUpdate("INSERT INTO progress (date, runtime, discovered, pending, crawled, failed, resources, size) " +
                "SELECT :date, runtime + :sessionRuntime, discovered, pending, crawled, failed, resources, size FROM progress WHERE id = 0")
@@ -8,7 +8,6 @@ import org.jdbi.v3.sqlobject.customizer.DefineNamedBindings;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
-import org.jdbi.v3.sqlobject.transaction.Transaction;
 import org.netpreserve.warcaroo.Resource;
 import org.netpreserve.warcaroo.util.Url;
 import org.netpreserve.warcaroo.webapp.Webapp;
@@ -18,41 +17,17 @@ import java.util.List;
 @RegisterConstructorMapper(Resource.class)
 public interface ResourceDAO {
 
-    @Transaction
-    default long add(@BindMethods Resource resource) {
-        long id = _addResource(resource);
-        _addResourceToHost(resource);
-        _addResourceToDomain(resource);
-        return id;
-    }
-
     @SqlUpdate("""
             INSERT INTO resources (response_uuid, page_id, method, url, host_id, domain_id, date, filename, response_offset,
                        response_length, request_length, metadata_length, status, redirect, payload_type,
-                       payload_size, payload_digest, fetch_time_ms, ip_address, type, protocol, transferred)
+                       payload_size, payload_digest, fetch_time_ms, ip_address, type, protocol, transferred, revisit_of,
+                       refers_to_date)
             VALUES (:responseUuid, :pageId, :method, :url, :hostId, :domainId, :date, :filename, :responseOffset,
                     :responseLength, :requestLength, :metadataLength, :status, :redirect, :payloadType,
-                    :payloadSize, :payloadDigest, :fetchTimeMs, :ipAddress, :type, :protocol, :transferred)""")
+                    :payloadSize, :payloadDigest, :fetchTimeMs, :ipAddress, :type, :protocol, :transferred, :revisitOf,
+                    :refersToDate)""")
     @GetGeneratedKeys
-    long _addResource(@BindMethods Resource resource);
-
-    @SqlUpdate("""
-            UPDATE hosts
-            SET resources = resources + 1,
-                size = size + :payloadSize,
-                transferred = transferred + :transferred,
-                storage = storage + :storage
-            WHERE id = :hostId""")
-    void _addResourceToHost(@BindMethods Resource resource);
-
-    @SqlUpdate("""
-            UPDATE domains
-            SET resources = resources + 1,
-                size = size + :payloadSize,
-                transferred = transferred + :transferred,
-                storage = storage + :storage
-            WHERE id = :domainId""")
-    void _addResourceToDomain(@BindMethods Resource resource);
+    long insert(@BindMethods Resource resource);
 
     String RESOURCES_WHERE = """
           WHERE (:hostId IS NULL OR host_id = :hostId)
@@ -63,26 +38,36 @@ public interface ResourceDAO {
     @SqlQuery("SELECT COUNT(*) FROM resources\n" + RESOURCES_WHERE)
     long count(@BindFields Webapp.ResourcesQuery query);
 
+    @SqlQuery("SELECT COUNT(*) FROM (SELECT 1 FROM resources\n" + RESOURCES_WHERE + "LIMIT :max)")
+    long countUpTo(@BindFields Webapp.ResourcesQuery query, long max);
+
     @SqlQuery("""
             SELECT *
             FROM resources
             """ + RESOURCES_WHERE + """
-            <orderBy> LIMIT :limit OFFSET (:page - 1) * :limit""")
+            <keyset> <orderBy> LIMIT :limit OFFSET CASE WHEN :after IS NULL THEN (:page - 1) * :limit ELSE 0 END""")
     @DefineNamedBindings
-    List<Resource> query(@Define String orderBy, @BindFields Webapp.ResourcesQuery query);
+    List<Resource> query(@Define String orderBy, @Define String keyset, @BindFields Webapp.ResourcesQuery query);
+
+    @SqlQuery("SELECT * FROM resources WHERE id = ?")
+    Resource find(long id);
 
     @SqlQuery("""
             SELECT * FROM resources
             WHERE url = :uri
-            AND payload_size = :payloadSize
-            AND payload_digest = :payloadDigest
+            ORDER BY date DESC
             LIMIT 1""")
-    Resource findByUrlAndPayload(String uri, long payloadSize, String payloadDigest);
+    Resource findByUrl(Url uri);
 
+    /**
+     * Finds a stored (non-revisit) copy of a payload.
+     */
     @SqlQuery("""
             SELECT * FROM resources
-            WHERE url = :uri
-            ORDER BY date DESC
+            WHERE payload_digest = :payloadDigest
+            AND revisit_of IS NULL
+            AND refers_to_date IS NULL
+            AND payload_size = :payloadSize
             LIMIT 1""")
-    Resource findByUrl(Url uri);
+    Resource findOriginalByPayload(String payloadDigest, long payloadSize);
 }
@@ -0,0 +1,73 @@
+package org.netpreserve.warcaroo.webapp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Caches row counts for the paginated API endpoints so scrolling through a table doesn't repeat the same
+ * COUNT(*) for every page.
+ */
+class CountCache {
+    static final long TTL_MILLIS = 5000;
+    static final int MAX_ENTRIES = 1000;
+    /**
+     * Approximate counts stop counting this many pages past the requested one.
+     */
+    static final int APPROXIMATE_PAGES_AHEAD = 10;
+    static final long MIN_APPROXIMATE_ROWS = 10_000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Counts the rows matched by a query.
+     *
+     * @param counter returns the count from a maintained counter, or null if there isn't one for this query
+     * @param exact   runs an exact count
+     * @param bounded counts up to the given number of rows
+     */
+    Count count(String table, Query query, @Nullable LongSupplier counter, LongSupplier exact,
+                LongUnaryOperator bounded) {
+        if (counter != null) return new Count(counter.getAsLong(), false);
+
+        String key = table + " " + query.filterKey();
+        long now = System.currentTimeMillis();
+        var entry = entries.get(key);
+        if (entry != null && now < entry.expires) return new Count(entry.count, false);
+
+        if (query.approximate) {
+            long max = Math.max(MIN_APPROXIMATE_ROWS, (query.page + APPROXIMATE_PAGES_AHEAD) * query.limit);
+            long count = bounded.applyAsLong(max);
+            if (count >= max) {
+                // prefer an expired exact count if it's larger than our lower bound
+                return new Count(entry == null ? count : Math.max(count, entry.count), true);
+            }
+            put(key, count, now);
+            return new Count(count, false);
+        }
+
+        long count = exact.getAsLong();
+        put(key, count, now);
+        return new Count(count, false);
+    }
+
+    private void put(String key, long count, long now) {
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.values().removeIf(entry -> entry.expires <= now);
+            if (entries.size() >= MAX_ENTRIES) entries.clear();
+        }
+        entries.put(key, new Entry(count, now + TTL_MILLIS));
+    }
+
+    private record Entry(long count, long expires) {
+    }
+
+    /**
+     * @param value       number of rows
+     * @param approximate true if value is a stale or lower bound estimate
+     */
+    record Count(long value, boolean approximate) {
+    }
+}
@@ -2,11 +2,16 @@ package org.netpreserve.warcaroo.webapp;
 
 import org.jdbi.v3.core.mapper.Nested;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public abstract class Query {
     @OpenAPI.Doc("Page number of results to return. Starting from 1.")
@@ -18,20 +23,143 @@ public abstract class Query {
     @OpenAPI.Doc("Filter on the value of fields.")
     public List<Webapp.Filter> filter;
 
-    public String orderBy(Class<? extends Record> recordClass) {
-        if (sort == null || sort.isEmpty()) return "";
-        var columns = getColumnNames(recordClass);
+    @OpenAPI.Doc("Return the rows following the row with this id in the sort order instead of using page. " +
+                 "The value to pass for the next page is returned as next_cursor.")
+    public Long after;
+    @OpenAPI.Doc("Return a quick estimate of the number of rows instead of an exact count.")
+    public boolean approximate;
 
-        StringBuilder builder = new StringBuilder();
-        for (var field : sort.split(",")) {
+    public String orderBy(Class<? extends Record> recordClass) {
+        var builder = new StringBuilder();
+        for (var key : sortKeys(recordClass)) {
             if (!builder.isEmpty()) builder.append(", ");
-            if (field.startsWith("-")) {
-                builder.append(columns.get(field.substring(1))).append(" DESC");
+            builder.append(key.column);
+            if (key.descending) builder.append(" DESC");
+        }
+        return "ORDER BY " + builder;
+    }
+
+    /**
+     * Returns a condition (starting with AND) selecting the rows after the {@link #after} cursor in the order given
+     * by {@link #orderBy(Class)}, or an empty string if there is no cursor. The cursor row's sort values are looked
+     * up by id in a subquery.
+     * <p>
+     * A row value comparison like (a, id) > (x, y) would be NULL whenever either side has a null, so the condition is
+     * expanded to (a > x) OR (a IS x AND id > y) ... with nulls ordered before all other values like SQLite does.
+     */
+    public String keyset(Class<? extends Record> recordClass, String table) {
+        return keyset(recordClass, table, table, Map.of());
+    }
+
+    /**
+     * Like {@link #keyset(Class, String)} for queries that join in other tables.
+     *
+     * @param from          the FROM clause used to look up the cursor row, including any joins
+     * @param joinedColumns qualified expressions for sort columns that don't belong to table, e.g. "status" -> "r.status"
+     */
+    public String keyset(Class<? extends Record> recordClass, String table, String from,
+                         Map<String, String> joinedColumns) {
+        if (after == null) return "";
+        var keys = sortKeys(recordClass);
+        Function<SortKey, String> qualify = key -> joinedColumns.getOrDefault(key.column, table + "." + key.column);
+        String cursorRow = " FROM " + from + " WHERE " + table + ".id = :after)";
+        if (keys.size() == 1) {
+            return "AND " + qualify.apply(keys.getFirst()) + (keys.getFirst().descending ? " < " : " > ") + ":after";
+        }
+
+        var terms = new ArrayList<String>();
+        for (int i = 0; i < keys.size(); i++) {
+            var term = new StringBuilder("(");
+            for (int j = 0; j < i; j++) {
+                var key = keys.get(j);
+                term.append(qualify.apply(key)).append(key.nullable() ? " IS " : " = ")
+                        .append("(SELECT ").append(qualify.apply(key)).append(cursorRow).append(" AND ");
+            }
+            var key = keys.get(i);
+            String column = qualify.apply(key);
+            String cursor = "(SELECT " + column + cursorRow;
+            if (!key.nullable()) {
+                term.append(column).append(key.descending ? " < " : " > ").append(cursor);
+            } else if (key.descending) {
+                term.append('(').append(column).append(" < ").append(cursor).append(" OR ")
+                        .append(column).append(" IS NULL AND ").append(cursor).append(" IS NOT NULL)");
             } else {
-                builder.append(columns.get(field));
+                term.append('(').append(column).append(" > ").append(cursor).append(" OR ")
+                        .append(column).append(" IS NOT NULL AND ").append(cursor).append(" IS NULL)");
             }
+            terms.add(term.append(')').toString());
         }
-        return "ORDER BY " + builder;
+        return "AND (" + String.join(" OR ", terms) + ")";
+    }
+
+    /**
+     * Parses the sort fields into columns, always ending with id as a tiebreaker so the order is total.
+     */
+    private List<SortKey> sortKeys(Class<? extends Record> recordClass) {
+        var keys = new ArrayList<SortKey>();
+        if (sort != null && !sort.isEmpty()) {
+            var columns = getColumnNames(recordClass);
+            for (var field : sort.split(",")) {
+                boolean descending = field.startsWith("-");
+                if (descending) field = field.substring(1);
+                String column = columns.get(field);
+                if (column == null) throw new IllegalArgumentException("No column for field: " + field);
+                keys.add(new SortKey(column, descending));
+            }
+        }
+        if (keys.stream().noneMatch(key -> key.column.equals("id"))) {
+            keys.add(new SortKey("id", !keys.isEmpty() && keys.getLast().descending));
+        }
+        return keys;
+    }
+
+    private record SortKey(String column, boolean descending) {
+        /**
+         * Record component types don't reliably say whether the column can be null (e.g. pages.visit_time_ms is
+         * read into a long) so only the primary key is assumed not to be.
+         */
+        boolean nullable() {
+            return !column.equals("id");
+        }
+    }
+
+    /**
+     * Returns a key identifying the rows this query matches, ignoring sorting and paging.
+     */
+    public String filterKey() {
+        return filterKey(null);
+    }
+
+    private String filterKey(String excludedField) {
+        var builder = new StringBuilder(getClass().getSimpleName());
+        var fields = new ArrayList<>(List.of(getClass().getFields()));
+        fields.sort(Comparator.comparing(Field::getName));
+        for (var field : fields) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().equals(excludedField)) continue;
+            if (field.getDeclaringClass() == Query.class && !field.getName().equals("filter")) continue;
+            try {
+                Object value = field.get(this);
+                if (value == null || value instanceof Collection<?> collection && collection.isEmpty()) continue;
+                builder.append(' ').append(field.getName()).append('=').append(value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns true if the query has no filters set.
+     */
+    public boolean isUnfiltered() {
+        return isUnfilteredExcept(null);
+    }
+
+    /**
+     * Returns true if the query has no filters set other than the given field.
+     */
+    public boolean isUnfilteredExcept(String field) {
+        return filterKey(field).equals(getClass().getSimpleName());
     }
 
     private final static Pattern CAMEL_HUMP = Pattern.compile("([a-z])([A-Z])");
@@ -43,7 +171,8 @@ public abstract class Query {
     public static Map<String, String> getColumnNames(Class<? extends Record> recordClass) {
         var map = new HashMap<String, String>();
         for (var recordComponent : recordClass.getRecordComponents()) {
-            if (recordComponent.getAnnotation(Nested.class) != null) {
+            // @Nested doesn't target record components, so it's only visible on the accessor
+            if (recordComponent.getAccessor().isAnnotationPresent(Nested.class)) {
                 //noinspection unchecked
                 map.putAll(getColumnNames((Class<? extends Record>) recordComponent.getType()));
             }
@@ -52,4 +181,5 @@ public abstract class Query {
         }
         return map;
     }
+
 }
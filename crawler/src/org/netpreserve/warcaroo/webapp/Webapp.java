@@ -15,6 +15,7 @@ import org.netpreserve.warcaroo.*;
 import org.netpreserve.warcaroo.cdp.NavigationException;
 import org.netpreserve.warcaroo.cdp.domains.Browser;
 import org.netpreserve.warcaroo.config.JobConfig;
+import org.netpreserve.warcaroo.db.PageDAO;
 import org.netpreserve.warcaroo.util.Url;
 import org.netpreserve.warcaroo.webapp.OpenAPI.Doc;
 import org.netpreserve.warcaroo.webapp.Route.GET;
@@ -25,6 +26,8 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.net.URLConnection;
 import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.netpreserve.warcaroo.webapp.Route.*;
@@ -44,6 +47,7 @@ public class Webapp implements HttpHandler {
             }));
     static final ObjectMapper JSON_NO_INDENT = JSON.copy().disable(SerializationFeature.INDENT_OUTPUT);
     private final Job job;
+    private final CountCache countCache = new CountCache();
     private final Map<String, Route> routes = buildMap(this);
     private final OpenAPI openapi = new OpenAPI(routes);
 
@@ -89,9 +93,22 @@ public class Webapp implements HttpHandler {
 
     @GET("/api/frontier")
     Paginated<FrontierUrl> frontier(FrontierQuery query) throws IOException {
-        long count = job.db.frontier().count(query);
-        var rows = job.db.frontier().query(query.orderBy(FrontierUrl.class), query);
-        return new Paginated<>(count / query.limit + 1, count, rows);
+        var count = countCache.count("frontier", query, frontierCounter(query),
+                () -> job.readOnlyDb.frontier().count(query), max -> job.readOnlyDb.frontier().countUpTo(query, max));
+        var rows = job.readOnlyDb.frontier().query(query.orderBy(FrontierUrl.class),
+                query.keyset(FrontierUrl.class, "frontier"), query);
+        return paginated(query, count, rows, FrontierUrl::id);
+    }
+
+    private LongSupplier frontierCounter(FrontierQuery query) {
+        if (!query.isUnfilteredExcept("state")) return null;
+        if (query.state == null) return () -> job.progress().discovered();
+        return switch (query.state) {
+            case PENDING -> () -> job.progress().pending();
+            case CRAWLED -> () -> job.progress().crawled();
+            case FAILED -> () -> job.progress().failed();
+            default -> null;
+        };
     }
 
     public static class FrontierPaginated extends Paginated<FrontierUrl> {
@@ -136,9 +153,11 @@ public class Webapp implements HttpHandler {
 
     @GET("/api/hosts")
     Paginated<Host> hosts(HostsQuery query) {
-        long count = job.db.hosts().count(query);
-        var rows = job.db.hosts().queryHosts(query.orderBy(Host.class), query);
-        return new Paginated(count / query.limit + 1, count, rows);
+        var count = countCache.count("hosts", query, null, () -> job.readOnlyDb.hosts().count(query),
+                max -> job.readOnlyDb.hosts().countUpTo(query, max));
+        var rows = job.readOnlyDb.hosts().queryHosts(query.orderBy(Host.class), query.keyset(Host.class, "hosts"),
+                query);
+        return paginated(query, count, rows, Host::id);
     }
 
     public static class PagesQuery extends Query {
@@ -147,9 +166,15 @@ public class Webapp implements HttpHandler {
 
     @GET("/api/pages")
     Paginated<Page> pages(PagesQuery query) throws IOException {
-        long count = job.db.pages().count(query);
-        var rows = job.db.pages().query(query, query.orderBy(Page.class), query.limit, (query.page - 1) * query.limit);
-        return new Paginated(count / query.limit + 1, count, rows);
+        LongSupplier counter = query.hostId != null && query.isUnfilteredExcept("hostId") ?
+                () -> hostCounter(query.hostId, Host::pages) : null;
+        var count = countCache.count("pages", query, counter, () -> job.readOnlyDb.pages().count(query),
+                max -> job.readOnlyDb.pages().countUpTo(query, max));
+        long offset = query.after == null ? (query.page - 1) * query.limit : 0;
+        var rows = job.readOnlyDb.pages().query(query, query.orderBy(Page.Ext.class),
+                query.keyset(Page.Ext.class, "pages", PageDAO.PAGES_FROM, Map.of("status", "r.status")),
+                query.limit, offset);
+        return (Paginated) paginated(query, count, rows, row -> row.page().id());
     }
 
     public static class ResourcesQuery extends Query {
@@ -163,11 +188,48 @@ public class Webapp implements HttpHandler {
         return job.progress();
     }
 
+    @GET("/api/metrics/seen-urls")
+    @Doc(summary = "Seen URL filter statistics")
+    SeenUrlFilter.Stats seenUrlFilterMetrics() {
+        return job.frontier().seenUrls().stats();
+    }
+
+    @GET("/api/metrics/capture")
+    @Doc(summary = "Subresource capture pipeline statistics")
+    CapturePipeline.Stats captureMetrics() {
+        return job.capturePipeline().stats();
+    }
+
+    @GET("/api/metrics/dedup")
+    @Doc(summary = "Payload deduplication statistics", value = "Revisit records written for payloads already " +
+                                                               "stored under a different URL.")
+    Storage.DedupStats dedupMetrics() {
+        return job.storage().dedupStats();
+    }
+
+    @GET("/api/metrics/sql")
+    @Doc(summary = "SQL statement metrics", value = "Execution counts and latencies of each DAO method, slowest in " +
+                                                    "total first, for the write connection and the read-only pool.")
+    SqlMetricsResponse sqlMetrics() {
+        return new SqlMetricsResponse(job.sqlMetrics.snapshot(), job.readOnlySqlMetrics.snapshot());
+    }
+
+    record SqlMetricsResponse(List<SqlMetrics.StatementStats> write, List<SqlMetrics.StatementStats> read) {
+    }
+
     @GET("/api/resources")
     Paginated<Resource> resources(ResourcesQuery query) throws IOException {
-        long count = job.db.resources().count(query);
-        var rows = job.db.resources().query(query.orderBy(Resource.class), query);
-        return new Paginated(count / query.limit + 1, count, rows);
+        LongSupplier counter = null;
+        if (query.isUnfiltered()) {
+            counter = () -> job.progress().resources();
+        } else if (query.hostId != null && query.hostId.matches("[0-9]+") && query.isUnfilteredExcept("hostId")) {
+            counter = () -> hostCounter(Long.parseLong(query.hostId), Host::resources);
+        }
+        var count = countCache.count("resources", query, counter, () -> job.readOnlyDb.resources().count(query),
+                max -> job.readOnlyDb.resources().countUpTo(query, max));
+        var rows = job.readOnlyDb.resources().query(query.orderBy(Resource.class),
+                query.keyset(Resource.class, "resources"), query);
+        return paginated(query, count, rows, Resource::id);
     }
 
     public static class RenderQuery {
@@ -176,7 +238,7 @@ public class Webapp implements HttpHandler {
 
     @GET("/api/render")
     void render(HttpExchange exchange, RenderQuery query) throws NavigationException, InterruptedException, IOException {
-        var screenshot = Replay.render(job.db, job.browserManager(), query.url);
+        var screenshot = Replay.render(job.readOnlyDb, job.browserManager(), query.url);
         exchange.getResponseHeaders().set("Content-Type", "image/webp");
         exchange.sendResponseHeaders(200, screenshot.length);
         exchange.getResponseBody().write(screenshot);
@@ -264,6 +326,11 @@ public class Webapp implements HttpHandler {
     }
 
 
+    private long hostCounter(long hostId, ToLongFunction<Host> counter) {
+        Host host = job.readOnlyDb.hosts().find(hostId);
+        return host == null ? 0 : counter.applyAsLong(host);
+    }
+
     public static class Paginated<T> {
         @JsonPropertyDescription("Index of the last page of results.")
         @Doc(example = "5")
@@ -271,14 +338,30 @@ public class Webapp implements HttpHandler {
         @Doc(example = "101")
         public final long last_row;
         public final List<T> data;
+        @JsonPropertyDescription("Value of the after parameter to fetch the next page. Null on the last page.")
+        public final Long next_cursor;
+        @JsonPropertyDescription("True if last_page and last_row are estimates.")
+        public final boolean approximate;
 
         public Paginated(long lastPage, long lastRow, List<T> data) {
+            this(lastPage, lastRow, data, null, false);
+        }
+
+        public Paginated(long lastPage, long lastRow, List<T> data, Long nextCursor, boolean approximate) {
             last_page = lastPage;
             last_row = lastRow;
             this.data = data;
+            next_cursor = nextCursor;
+            this.approximate = approximate;
         }
     }
 
+    private static <T> Paginated<T> paginated(Query query, CountCache.Count count, List<T> rows,
+                                              ToLongFunction<T> id) {
+        Long nextCursor = rows.isEmpty() || rows.size() < query.limit ? null : id.applyAsLong(rows.getLast());
+        return new Paginated<>(count.value() / query.limit + 1, count.value(), rows, nextCursor, count.approximate());
+    }
+
     private void notFound(HttpExchange exchange) throws IOException {
         String path = exchange.getRequestURI().getPath();
         if (path.contains("..")) throw new IllegalArgumentException();
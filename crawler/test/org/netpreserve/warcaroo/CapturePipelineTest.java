@@ -0,0 +1,46 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.warcaroo.cdp.ResourceFetched;
+import org.netpreserve.warcaroo.cdp.domains.Network;
+import org.netpreserve.warcaroo.util.BareMediaType;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CapturePipelineTest {
+    @Test
+    void testSavesSubmittedResources(@TempDir Path tempDir) throws Exception {
+        try (var db = Database.newDatabaseInMemory();
+             var writer = new DatabaseWriter(db);
+             var statistics = new Statistics(db, writer)) {
+            var storage = new Storage(tempDir, db, writer, null, statistics, new HostIdCache(10));
+            var url = new Url("http://example.com/");
+            long pageId = db.pages().insert(url, db.hosts().insertOrGetId(url.rhost()),
+                    db.domains().insertOrGetId(url.rdomain()), Instant.now());
+
+            var pipeline = new CapturePipeline(storage, writer);
+            for (int i = 0; i < 10; i++) {
+                pipeline.submit(pageId, new ResourceFetched("GET", new Url("http://example.com/" + i),
+                        "GET / HTTP/1.1\r\n\r\n".getBytes(US_ASCII), null,
+                        "HTTP/1.1 200 OK\r\n\r\n".getBytes(US_ASCII), ("body" + i).getBytes(US_ASCII), null,
+                        null, 0, 200, null, new BareMediaType("text/plain"), new Network.ResourceType("Other"),
+                        null, 0, null, null, null, Instant.now(), -1, null));
+            }
+            pipeline.close();
+            storage.close();
+
+            var stats = pipeline.stats();
+            assertEquals(10, stats.completed());
+            assertEquals(0, stats.queued());
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(db.resources().findByUrl(new Url("http://example.com/" + i)));
+            }
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package org.netpreserve.warcaroo;
 
 import org.junit.jupiter.api.Test;
-import org.netpreserve.warcaroo.util.Url;
+import org.junit.jupiter.api.io.TempDir;
 
-import java.io.IOException;
-import java.sql.SQLException;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Collections;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class DatabaseTest {
-
-}
\ No newline at end of file
+    @Test
+    void testReadOnly(@TempDir Path tempDir) throws Exception {
+        Path path = tempDir.resolve("db.sqlite3");
+        try (var db = Database.open(path);
+             var readOnlyDb = Database.openReadOnly(path)) {
+            long hostId = db.hosts().insertOrGetId("com,example,");
+            assertEquals(hostId, readOnlyDb.hosts().findByRHost("com,example,").id());
+            assertEquals(1, (int) readOnlyDb.withHandle(handle -> handle.createQuery("PRAGMA query_only")
+                    .mapTo(Integer.class).one()));
+            assertThrows(Exception.class, () -> readOnlyDb.hosts().insertOrGetId("org,example,"));
+        }
+    }
+}
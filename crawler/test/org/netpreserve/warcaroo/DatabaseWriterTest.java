@@ -0,0 +1,71 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseWriterTest {
+    @Test
+    void testFailedOperationDoesNotAffectBatch() throws Exception {
+        try (var db = Database.newDatabaseInMemory();
+             var writer = new DatabaseWriter(db)) {
+            var futures = new ArrayList<CompletableFuture<Long>>();
+            for (int i = 0; i < 100; i++) {
+                String rhost = "com,example" + i + ",";
+                futures.add(writer.submit(dao -> dao.hosts().insertOrGetId(rhost)));
+            }
+            var failure = writer.execute(dao -> {
+                dao.hosts().insertOrGetId("com,rolledback,");
+                throw new IllegalStateException("boom");
+            });
+            long lastId = writer.call(dao -> dao.hosts().insertOrGetId("com,last,"));
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i + 1, futures.get(i).join());
+            }
+            var e = assertThrows(CompletionException.class, failure::join);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertNull(db.hosts().findByRHost("com,rolledback,"));
+            assertEquals(lastId, db.hosts().findByRHost("com,last,").id());
+        }
+    }
+
+    @Test
+    void testOperationsRacingCloseAlwaysComplete() throws Exception {
+        try (var db = Database.newDatabaseInMemory()) {
+            var writer = new DatabaseWriter(db);
+            var futures = new CopyOnWriteArrayList<CompletableFuture<Void>>();
+            var submitters = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                submitters.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        while (true) futures.add(writer.execute(dao -> dao.hosts().insertOrGetId("com,example,")));
+                    } catch (IllegalStateException e) {
+                        // closed
+                    }
+                }));
+            }
+            Thread.sleep(50);
+            writer.close();
+            for (var submitter : submitters) submitter.join();
+
+            for (var future : List.copyOf(futures)) {
+                // either committed or failed as closed, but never left pending
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertInstanceOf(IllegalStateException.class, e.getCause());
+                }
+            }
+            assertThrows(IllegalStateException.class, () -> writer.execute(dao -> {}));
+        }
+    }
+}
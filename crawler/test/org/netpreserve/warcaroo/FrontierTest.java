@@ -1,5 +1,6 @@
 package org.netpreserve.warcaroo;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,6 +10,7 @@ import org.netpreserve.warcaroo.config.ScopeType;
 import org.netpreserve.warcaroo.util.Url;
 import org.netpreserve.warcaroo.webapp.Webapp;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -20,17 +22,16 @@ class FrontierTest {
     private final Database database;
     private Frontier frontier;
     private CrawlConfig crawlConfig;
+    private DatabaseWriter writer;
+    private Statistics statistics;
 
     FrontierTest(Database database) {
         this.database = database;
     }
 
     @BeforeEach
-    void setUp() {
-        this.crawlConfig = new CrawlConfig("test", null, null, null, 5, 1000);
-
-        frontier = new Frontier(database, new Scope(null, new ScopeConfig(List.of(new UrlMatcher.Regex("^https?://(www\\.)?example\\.(com|org)")),
-                List.of()), ScopeType.PAGE), crawlConfig);
+    void setUp() throws IOException {
+        this.crawlConfig = new CrawlConfig("test", null, null, null, 5, 1000, null);
 
         // Clear relevant tables before each test
         database.useHandle(handle -> {
@@ -38,6 +39,23 @@ class FrontierTest {
             handle.execute("DELETE FROM hosts");
             handle.execute("DELETE FROM domains");
         });
+
+        // (created after clearing the tables as the frontier loads its host queue from the database)
+        frontier = newFrontier(new Scope(null, new ScopeConfig(List.of(new UrlMatcher.Regex("^https?://(www\\.)?example\\.(com|org)")),
+                List.of()), ScopeType.PAGE), crawlConfig);
+    }
+
+    @AfterEach
+    void tearDown() {
+        statistics.close();
+        writer.close();
+    }
+
+    private Frontier newFrontier(Scope scope, CrawlConfig crawlConfig) throws IOException {
+        if (writer == null) writer = new DatabaseWriter(database);
+        if (statistics == null) statistics = new Statistics(database, writer);
+        return new Frontier(database, writer, scope, crawlConfig,
+                SeenUrlFilter.open(database, null, crawlConfig.seenUrlFilter()), statistics, new HostIdCache(100));
     }
 
     @Test
@@ -46,6 +64,7 @@ class FrontierTest {
         Url via = new Url("http://referrer.com");
 
         frontier.addUrl(url, 0, via);
+        statistics.flush();
 
         FrontierUrl addedUrl = database.frontier().findByUrl(url);
         assertNotNull(addedUrl);
@@ -57,6 +76,7 @@ class FrontierTest {
         Host host = database.hosts().findByRHost(Url.reverseHost("example.com"));
         assertNotNull(host);
         assertEquals(1, host.pending());
+        assertNotNull(host.nextVisit());
 
         var domain = database.domains().findByRHost(Url.reverseHost("example.com"));
         assertNotNull(domain);
@@ -71,12 +91,30 @@ class FrontierTest {
         Url via = new Url("http://referrer.com");
 
         frontier.addUrls(Arrays.asList(url1, url2, url3), 0, via);
+        statistics.flush();
 
         assertEquals(2, database.frontier().count(new Webapp.FrontierQuery()));
         assertEquals(2, database.hosts().count(new Webapp.HostsQuery()));
         assertEquals(2, database.domains().count(new Webapp.HostsQuery()));
     }
 
+    @Test
+    void testAddUrlsDeduplicates() {
+        long discoveredBefore = statistics.progress(database.progress().current()).discovered();
+        frontier.addUrl(new Url("http://example.com"), 0, null);
+        frontier.addUrls(List.of(new Url("http://example.com"), new Url("https://example.com"),
+                new Url("https://example.com#fragment"), new Url("http://www.example.com"),
+                new Url("http://example.org")), 1, null);
+        statistics.flush();
+
+        assertEquals(4, database.frontier().count(new Webapp.FrontierQuery()));
+        assertEquals(2, database.hosts().findByRHost(Url.reverseHost("example.com")).pending());
+        assertEquals(1, database.hosts().findByRHost(Url.reverseHost("www.example.com")).pending());
+        assertEquals(3, database.domains().findByRHost(Url.reverseHost("example.com")).pending());
+        assertEquals(1, database.domains().findByRHost(Url.reverseHost("example.org")).pending());
+        assertEquals(discoveredBefore + 4, database.progress().current().discovered());
+    }
+
     @Test
     void testTakeNext() throws CrawlLimitException {
         Url url = new Url("http://example.com");
@@ -102,6 +140,7 @@ class FrontierTest {
         assertNotNull(frontierUrl);
 
         frontier.release(frontierUrl, FrontierUrl.State.CRAWLED);
+        statistics.flush();
 
         FrontierUrl updatedUrl = database.frontier().findByUrl(url);
         assertNotNull(updatedUrl);
@@ -118,6 +157,26 @@ class FrontierTest {
         assertEquals(0, domain.pending());
     }
 
+    @Test
+    void testReleaseFailed() throws CrawlLimitException {
+        Url url = new Url("http://example.com");
+        frontier.addUrl(url, 0, null);
+        FrontierUrl frontierUrl = frontier.takeNext();
+        assertNotNull(frontierUrl);
+
+        frontier.release(frontierUrl, FrontierUrl.State.FAILED);
+        statistics.flush();
+
+        Host host = database.hosts().findByRHost(Url.reverseHost("example.com"));
+        assertEquals(0, host.pending());
+        assertEquals(1, host.failed());
+        assertEquals(0, host.robotsExcluded());
+
+        Domain domain = database.domains().findByRHost(Url.reverseHost("example.com"));
+        assertEquals(0, domain.pending());
+        assertEquals(1, domain.failed());
+    }
+
     @Test
     void testScopeEnforcement() {
         Url inScopeUrl1 = new Url("http://example.com");
@@ -128,10 +187,10 @@ class FrontierTest {
         frontier.addUrls(Arrays.asList(inScopeUrl1, inScopeUrl2, outOfScopeUrl1, outOfScopeUrl2), 0, null);
 
         assertEquals(2, database.frontier().count(new Webapp.FrontierQuery()));
-        assertNotNull(database.frontier().findUrl(inScopeUrl1));
-        assertNotNull(database.frontier().findUrl(inScopeUrl2));
-        assertNull(database.frontier().findUrl(outOfScopeUrl1));
-        assertNull(database.frontier().findUrl(outOfScopeUrl2));
+        assertNotNull(database.frontier().findByUrl(inScopeUrl1));
+        assertNotNull(database.frontier().findByUrl(inScopeUrl2));
+        assertNull(database.frontier().findByUrl(outOfScopeUrl1));
+        assertNull(database.frontier().findByUrl(outOfScopeUrl2));
     }
 
     @Test
@@ -148,4 +207,36 @@ class FrontierTest {
         assertNotNull(host.nextVisit());
         assertTrue(host.nextVisit().equals(host.lastVisit().plusMillis(crawlConfig.delay())));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testHostLockedUntilRelease() throws CrawlLimitException, IOException {
+        var frontier = newFrontier(this.frontier.scope(), new CrawlConfig("test", null, null, null, 5, 0, null));
+        Url url1 = new Url("http://example.com");
+        Url url2 = new Url("https://example.com");
+        frontier.addUrls(List.of(url1, url2), 0, null);
+
+        FrontierUrl first = frontier.takeNext();
+        assertNotNull(first);
+        assertEquals(url1, first.url());
+        assertNull(frontier.takeNext(), "host should be locked while a URL is in progress");
+
+        frontier.release(first, FrontierUrl.State.CRAWLED);
+        FrontierUrl second = frontier.takeNext();
+        assertNotNull(second);
+        assertEquals(url2, second.url());
+
+        frontier.release(second, FrontierUrl.State.CRAWLED);
+        assertNull(frontier.takeNext());
+    }
+
+    @Test
+    void testSchedulerRestoredFromDatabase() throws CrawlLimitException, IOException {
+        Url url = new Url("http://example.org");
+        frontier.addUrl(url, 0, null);
+
+        var restartedFrontier = newFrontier(frontier.scope(), crawlConfig);
+        FrontierUrl takenUrl = restartedFrontier.takeNext();
+        assertNotNull(takenUrl);
+        assertEquals(url, takenUrl.url());
+    }
+}
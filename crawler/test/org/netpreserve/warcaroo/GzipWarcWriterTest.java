@@ -0,0 +1,90 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.jwarc.MediaType;
+import org.netpreserve.jwarc.WarcCompression;
+import org.netpreserve.jwarc.WarcReader;
+import org.netpreserve.jwarc.WarcResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class GzipWarcWriterTest {
+
+    @Test
+    public void largeRecordsAreCompressedInParallel(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("test.warc.gz");
+        var bodies = new ArrayList<byte[]>();
+        bodies.add("small".getBytes());
+        bodies.add(compressibleBytes(GzipWarcWriter.BLOCK_SIZE * 3 + 12345));
+        bodies.add(compressibleBytes(GzipWarcWriter.BLOCK_SIZE * 2 - 1000)); // header pushes it to a whole block
+        bodies.add("after".getBytes());
+
+        var offsets = new ArrayList<Long>();
+        var pool = new ForkJoinPool(3);
+        try (var writer = new GzipWarcWriter(FileChannel.open(file, CREATE, WRITE), pool)) {
+            for (int i = 0; i < bodies.size(); i++) {
+                offsets.add(writer.position());
+                writer.write(new WarcResource.Builder(URI.create("http://example.com/" + i))
+                        .body(MediaType.OCTET_STREAM, bodies.get(i))
+                        .build());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        try (var reader = new WarcReader(file)) {
+            assertEquals(WarcCompression.GZIP, reader.compression());
+            for (int i = 0; i < bodies.size(); i++) {
+                var record = (WarcResource) reader.next().orElseThrow();
+                assertEquals(offsets.get(i), reader.position());
+                assertEquals("http://example.com/" + i, record.target());
+                assertArrayEquals(bodies.get(i), record.body().stream().readAllBytes());
+            }
+            assertTrue(reader.next().isEmpty());
+        }
+    }
+
+    @Test
+    public void blocksFormASingleDeflateStream() throws Exception {
+        byte[] data = compressibleBytes(GzipWarcWriter.BLOCK_SIZE * 2);
+        byte[] first = Arrays.copyOfRange(data, 0, GzipWarcWriter.BLOCK_SIZE);
+        byte[] second = Arrays.copyOfRange(data, GzipWarcWriter.BLOCK_SIZE, data.length);
+        var out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+        out.write(GzipWarcWriter.deflate(first, null, false));
+        out.write(GzipWarcWriter.deflate(second, Arrays.copyOfRange(first, first.length - 32768,
+                first.length), true));
+        var crc = new CRC32();
+        crc.update(data);
+        out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue()).putInt(data.length).array());
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    private static byte[] compressibleBytes(int length) {
+        var random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+}
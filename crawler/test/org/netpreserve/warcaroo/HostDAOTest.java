@@ -8,6 +8,7 @@ import org.netpreserve.warcaroo.webapp.Webapp;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -40,50 +41,6 @@ class HostDAOTest {
         assertNotEquals(id1, id3, "Inserting a different host should return a different ID");
     }
 
-    @Test
-    void testFindNextToVisit() {
-        Instant now = Instant.now();
-        Instant future = now.plusSeconds(3600);
-
-        long host1Id = hostDAO.insertOrGetId("host1.com");
-        long host2Id = hostDAO.insertOrGetId("host2.com");
-        long host3Id = hostDAO.insertOrGetId("host3.com");
-
-        hostDAO.updateNextVisit(host1Id, now, now.minusSeconds(3600));
-        hostDAO.updateNextVisit(host2Id, now, future);
-        hostDAO.updateNextVisit(host3Id, now, now.minusSeconds(1800));
-
-        Long nextToVisit = hostDAO.findNextToVisit(now, List.of(host2Id));
-        assertNotNull(nextToVisit);
-        assertEquals(host1Id, nextToVisit);
-    }
-
-    @Test
-    void testUpdateOnFrontierUrlStateChange() {
-        long hostId = hostDAO.insertOrGetId("example.com");
-        Instant now = Instant.now();
-        Instant nextVisit = now.plusSeconds(3600);
-
-        hostDAO.updateOnFrontierUrlStateChange(hostId, FrontierUrl.State.PENDING, FrontierUrl.State.FAILED, now, nextVisit);
-
-        Host host = hostDAO.find(hostId);
-        assertEquals(now.truncatedTo(ChronoUnit.MILLIS), host.lastVisit());
-        assertEquals(nextVisit.truncatedTo(ChronoUnit.MILLIS), host.nextVisit());
-        assertEquals(-1, host.pending());
-        assertEquals(1, host.failed());
-        assertEquals(0, host.robotsExcluded());
-    }
-
-    @Test
-    void testIncrementPendingAndInitNextVisit() {
-        long hostId = hostDAO.insertOrGetId("example.com");
-        hostDAO.incrementPendingAndInitNextVisit(hostId);
-
-        Host host = hostDAO.find(hostId);
-        assertEquals(1, host.pending());
-        assertNotNull(host.nextVisit());
-    }
-
     @Test
     void testUpdateNextVisit() {
         long hostId = hostDAO.insertOrGetId("example.com");
@@ -110,12 +67,42 @@ class HostDAOTest {
         long count = hostDAO.count(query);
         assertEquals(2, count);
 
-        List<Host> hosts = hostDAO.queryHosts("ORDER BY rhost DESC", query);
+        List<Host> hosts = hostDAO.queryHosts("ORDER BY rhost DESC", "", query);
         assertEquals(2, hosts.size());
         assertEquals("com,example,subdomain,", hosts.get(0).rhost());
         assertEquals("com,example,", hosts.get(1).rhost());
     }
 
+    @Test
+    void testKeysetPagination() {
+        for (int i = 0; i < 7; i++) {
+            long id = hostDAO.insertOrGetId("com,example,host" + i + ",");
+            database.useHandle(h -> h.execute("UPDATE hosts SET pending = ? WHERE id = ?", id % 3, id));
+            // leave some visit times null, including on rows that end up as the cursor
+            if (i % 2 == 0) hostDAO.updateNextVisit(id, Instant.ofEpochSecond(i % 3), Instant.ofEpochSecond(i % 4));
+        }
+
+        for (String sort : List.of("", "-pending", "pending,-rhost", "-pending,rhost", "lastVisit", "-lastVisit",
+                "nextVisit,-pending", "-nextVisit,lastVisit", "-lastVisit,-nextVisit")) {
+            var query = new Webapp.HostsQuery();
+            query.sort = sort;
+            query.limit = 7;
+            List<String> expected = hostDAO.queryHosts(query.orderBy(Host.class), query.keyset(Host.class, "hosts"),
+                    query).stream().map(Host::rhost).toList();
+
+            query.limit = 2;
+            var actual = new ArrayList<String>();
+            while (true) {
+                var rows = hostDAO.queryHosts(query.orderBy(Host.class), query.keyset(Host.class, "hosts"), query);
+                rows.forEach(host -> actual.add(host.rhost()));
+                if (rows.size() < query.limit) break;
+                query.after = rows.getLast().id();
+            }
+            assertEquals(7, expected.size());
+            assertEquals(expected, actual, "sort=" + sort);
+        }
+    }
+
     @Test
     void testClearNextVisitIfNoPendingUrls() {
         long hostId = hostDAO.insertOrGetId("example.com");
@@ -132,9 +119,9 @@ class HostDAOTest {
 
         // Now let's add a pending URL and test again
         long domainId = database.domains().insertOrGetId("com,example,");
-        database.frontier().addUrl0(new Url("http://example.com/"), hostId, domainId, 0, null, Instant.now(),
-                FrontierUrl.State.PENDING);
-        database.hosts().incrementPendingAndInitNextVisit(hostId);
+        database.frontier().addUrls(List.of(new Url("http://example.com/")), List.of(hostId), List.of(domainId), 0,
+                null, Instant.now(), FrontierUrl.State.PENDING);
+        database.hosts().initNextVisit(List.of(hostId));
 
         hostDAO.clearNextVisitIfNoPendingUrls(hostId);
 
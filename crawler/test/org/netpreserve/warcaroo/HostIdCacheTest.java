@@ -0,0 +1,31 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostIdCacheTest {
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        var cache = new HostIdCache(2);
+        cache.putHost("com,example,", 1);
+        cache.putHost("org,example,", 2);
+        assertEquals(1L, cache.hostId("com,example,"));
+        cache.putHost("net,example,", 3);
+        assertEquals(1L, cache.hostId("com,example,"));
+        assertNull(cache.hostId("org,example,"));
+        assertEquals(3L, cache.hostId("net,example,"));
+        assertNull(cache.domainId("com,example,"));
+    }
+
+    @Test
+    void testLoad() throws Exception {
+        try (var db = Database.newDatabaseInMemory()) {
+            long hostId = db.hosts().insertOrGetId("com,example,www,");
+            long domainId = db.domains().insertOrGetId("com,example,");
+            var cache = HostIdCache.load(db);
+            assertEquals(hostId, cache.hostId("com,example,www,"));
+            assertEquals(domainId, cache.domainId("com,example,"));
+        }
+    }
+}
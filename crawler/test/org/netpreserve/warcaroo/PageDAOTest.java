@@ -3,9 +3,14 @@ package org.netpreserve.warcaroo;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.netpreserve.warcaroo.db.PageDAO;
 import org.netpreserve.warcaroo.util.Url;
+import org.netpreserve.warcaroo.webapp.Webapp;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -24,7 +29,11 @@ class PageDAOTest {
 
         long hostId = database.hosts().insertOrGetId(url.rhost());
         long domainId = database.domains().insertOrGetId(url.rdomain());
-        database.pages().create(url, hostId, domainId, Instant.now());
+        database.pages().insert(url, hostId, domainId, Instant.now());
+        try (var writer = new DatabaseWriter(database);
+             var statistics = new Statistics(database, writer)) {
+            statistics.pageAdded(hostId, domainId);
+        }
 
         Host host = database.hosts().find(hostId);
         Domain domain = database.domains().find(domainId);
@@ -32,4 +41,52 @@ class PageDAOTest {
         assertEquals(1, host.pages());
         assertEquals(1, domain.pages());
     }
+
+    @Test
+    public void testKeysetPagination() {
+        Url url = Url.orNull("http://www.example43.com/");
+        long hostId = database.hosts().insertOrGetId(url.rhost());
+        long domainId = database.domains().insertOrGetId(url.rdomain());
+        for (int i = 0; i < 9; i++) {
+            long pageId = database.pages().insert(new Url(url + "page" + i), hostId, domainId, Instant.now());
+            String title = i % 3 == 0 ? null : "title" + (i % 2);
+            Long mainResourceId = null;
+            if (i % 4 != 0) {
+                int status = i % 4 == 1 ? 200 : 404;
+                mainResourceId = database.withHandle(h -> h.createUpdate("""
+                                INSERT INTO resources (host_id, domain_id, method, url, date, page_id, filename,
+                                    response_offset, response_length, request_length, metadata_length, status,
+                                    payload_size, fetch_time_ms, transferred)
+                                VALUES (:hostId, :domainId, 'GET', 'http://www.example43.com/', 0, :pageId, 'x.warc',
+                                    0, 0, 0, 0, :status, 0, 0, 0)""")
+                        .bind("hostId", hostId).bind("domainId", domainId).bind("pageId", pageId)
+                        .bind("status", status)
+                        .executeAndReturnGeneratedKeys().mapTo(Long.class).one());
+            }
+            database.pages().finish(pageId, title, 0, mainResourceId);
+        }
+
+        for (String sort : List.of("", "title", "-title", "title,-id", "status", "-status,title",
+                "status,-title", "-title,-status")) {
+            var query = new Webapp.PagesQuery();
+            query.hostId = hostId;
+            query.sort = sort;
+            List<Long> expected = query(query, 100).stream().map(page -> page.page().id()).toList();
+            assertEquals(9, expected.size());
+
+            var actual = new ArrayList<Long>();
+            while (true) {
+                var rows = query(query, 2);
+                rows.forEach(page -> actual.add(page.page().id()));
+                if (rows.size() < 2) break;
+                query.after = rows.getLast().page().id();
+            }
+            assertEquals(expected, actual, "sort=" + sort);
+        }
+    }
+
+    private List<Page.Ext> query(Webapp.PagesQuery query, int limit) {
+        return database.pages().query(query, query.orderBy(Page.Ext.class),
+                query.keyset(Page.Ext.class, "pages", PageDAO.PAGES_FROM, Map.of("status", "r.status")), limit, 0);
+    }
 }
@@ -0,0 +1,68 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.jwarc.*;
+import org.netpreserve.warcaroo.cdp.BodyBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlainWarcWriterTest {
+
+    @Test
+    public void transfersBodiesDirectly(@TempDir Path tempDir) throws Exception {
+        byte[] header = "HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\n\r\n".getBytes(US_ASCII);
+        byte[] small = randomBytes(1000);
+        byte[] large = randomBytes(300_000);
+        var file = tempDir.resolve("test.warc");
+        try (var writer = new PlainWarcWriter(FileChannel.open(file, CREATE, WRITE));
+             var inMemory = new BodyBuffer(1024 * 1024, tempDir);
+             var spilled = new BodyBuffer(1024, tempDir)) {
+            inMemory.write(ByteBuffer.wrap(small));
+            spilled.write(ByteBuffer.wrap(large));
+            assertFalse(spilled.inMemory());
+            writer.write(response("http://example.com/small", header, inMemory), header, inMemory);
+            writer.write(response("http://example.com/large", header, spilled), header, spilled);
+            writer.write(new WarcResource.Builder(URI.create("http://example.com/plain"))
+                    .body(MediaType.OCTET_STREAM, small).build());
+        }
+
+        try (var reader = new WarcReader(file)) {
+            assertEquals(WarcCompression.NONE, reader.compression());
+            var first = (WarcResponse) reader.next().orElseThrow();
+            assertArrayEquals(small, first.http().body().stream().readAllBytes());
+            var second = (WarcResponse) reader.next().orElseThrow();
+            assertEquals("http://example.com/large", second.target());
+            assertArrayEquals(large, second.http().body().stream().readAllBytes());
+            var third = (WarcResource) reader.next().orElseThrow();
+            assertArrayEquals(small, third.body().stream().readAllBytes());
+            assertTrue(reader.next().isEmpty());
+        }
+    }
+
+    private static WarcResponse response(String url, byte[] header, SeekableByteChannel body) throws Exception {
+        body.position(0);
+        var stream = new SequenceInputStream(new ByteArrayInputStream(header), Channels.newInputStream(body));
+        return new WarcResponse.Builder(url)
+                .body(MediaType.HTTP_RESPONSE, Channels.newChannel(stream), header.length + body.size())
+                .build();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
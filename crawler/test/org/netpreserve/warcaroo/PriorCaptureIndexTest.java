@@ -0,0 +1,60 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.jwarc.WarcDigest;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriorCaptureIndexTest {
+    private static final String DIGEST_A = "sha1:2WAXX5NVZZ5QK6NDHDP7WJVJSVDMJ5RR";
+    private static final String DIGEST_B = "3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ";
+
+    @Test
+    void testBuildAndFind(@TempDir Path tempDir) throws Exception {
+        Path cdxj = tempDir.resolve("a.cdxj");
+        Files.writeString(cdxj, """
+                com,example)/a 20240102030405 {"url":"http://example.com/a","digest":"%s","status":"200"}
+                com,example)/a 20230102030405 {"url": "http://example.com/a", "digest": "%s"}
+                com,example)/md5 20240102030405 {"url":"http://example.com/md5","digest":"md5:abcd"}
+                """.formatted(DIGEST_A, DIGEST_A));
+        Path cdx = tempDir.resolve("b.cdx");
+        Files.writeString(cdx, """
+                 CDX N b a m s k r M S V g
+                com,example)/b 20240506 http://example.com/b text/html 200 %s - - 100 0 b.warc.gz
+                com,example)/c 20240506070809 http://example.com/c text/html 200 - - - 100 0 b.warc.gz
+                """.formatted(DIGEST_B));
+
+        Path table = tempDir.resolve("prior.idx");
+        assertEquals(2, PriorCaptureIndex.build(List.of(cdxj, cdx), table));
+        assertTrue(PriorCaptureIndex.isIndex(table));
+        assertFalse(PriorCaptureIndex.isIndex(cdx));
+
+        try (var index = PriorCaptureIndex.open(table)) {
+            assertTrue(index.isBuiltFrom(List.of(cdx, cdxj)));
+            assertFalse(index.isBuiltFrom(List.of(cdxj)));
+            assertEquals(Instant.parse("2023-01-02T03:04:05Z"),
+                    index.find(new Url("http://example.com/a"), new WarcDigest(DIGEST_A)));
+            assertEquals(Instant.parse("2024-05-06T00:00:00Z"),
+                    index.find(new Url("http://example.com/b"), new WarcDigest("sha1:" + DIGEST_B)));
+            assertNull(index.find(new Url("http://example.com/b"), new WarcDigest(DIGEST_A)));
+            assertNull(index.find(new Url("http://example.com/c"), new WarcDigest(DIGEST_A)));
+        }
+
+        // a built table can itself be a source
+        Path rebuilt = tempDir.resolve("rebuilt.idx");
+        assertEquals(2, PriorCaptureIndex.build(List.of(table), rebuilt));
+        // with the same entries, only the recorded sources differ
+        byte[] tableBytes = Files.readAllBytes(table);
+        byte[] rebuiltBytes = Files.readAllBytes(rebuilt);
+        assertArrayEquals(Arrays.copyOfRange(tableBytes, PriorCaptureIndex.HEADER_SIZE, tableBytes.length),
+                Arrays.copyOfRange(rebuiltBytes, PriorCaptureIndex.HEADER_SIZE, rebuiltBytes.length));
+    }
+}
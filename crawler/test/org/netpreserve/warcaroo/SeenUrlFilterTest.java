@@ -0,0 +1,64 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.warcaroo.config.SeenUrlFilterConfig;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeenUrlFilterTest {
+    private static final SeenUrlFilterConfig CONFIG = new SeenUrlFilterConfig(1000L, 0.01);
+
+    @Test
+    void testPersistence(@TempDir Path tempDir) throws Exception {
+        Path path = tempDir.resolve("seen-urls.bloom");
+        try (var db = Database.newDatabaseInMemory()) {
+            long hostId = db.hosts().insertOrGetId("com,example,");
+            long domainId = db.domains().insertOrGetId("com,example,");
+            db.frontier().addUrls(List.of(new Url("http://example.com/existing")), List.of(hostId), List.of(domainId),
+                    0, null, Instant.now(), FrontierUrl.State.PENDING);
+
+            // rebuilt from the frontier table
+            try (var filter = SeenUrlFilter.open(db, path, CONFIG)) {
+                assertTrue(filter.mightContain(new Url("http://example.com/existing")));
+                assertFalse(filter.mightContain(new Url("http://example.com/new")));
+                filter.put(new Url("http://example.com/new"));
+                assertTrue(filter.mightContain(new Url("http://example.com/new")));
+                assertEquals(2, filter.stats().hits());
+                assertEquals(1, filter.stats().misses());
+            }
+
+            // reused as it was closed cleanly
+            try (var filter = SeenUrlFilter.open(db, path, CONFIG)) {
+                assertTrue(filter.mightContain(new Url("http://example.com/new")));
+            }
+
+            // rebuilt as the sizing changed
+            try (var filter = SeenUrlFilter.open(db, path, new SeenUrlFilterConfig(2000L, 0.01))) {
+                assertTrue(filter.mightContain(new Url("http://example.com/existing")));
+                assertFalse(filter.mightContain(new Url("http://example.com/new")));
+            }
+        }
+    }
+
+    @Test
+    void testFalsePositiveRate() throws Exception {
+        try (var db = Database.newDatabaseInMemory()) {
+            var filter = SeenUrlFilter.open(db, null, CONFIG);
+            for (int i = 0; i < 1000; i++) {
+                filter.put(new Url("http://example.com/" + i));
+            }
+            int falsePositives = 0;
+            for (int i = 0; i < 10000; i++) {
+                assertTrue(filter.mightContain(new Url("http://example.com/" + (i % 1000))));
+                if (filter.mightContain(new Url("http://example.org/" + i))) falsePositives++;
+            }
+            assertTrue(falsePositives < 300, "too many false positives: " + falsePositives);
+        }
+    }
+}
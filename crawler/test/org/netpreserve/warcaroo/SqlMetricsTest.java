@@ -0,0 +1,39 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlMetricsTest {
+    @Test
+    void testRecordsDaoMethods() throws Exception {
+        try (var db = Database.newDatabaseInMemory()) {
+            long hostId = db.hosts().insertOrGetId("com,example,");
+            db.hosts().find(hostId);
+            db.hosts().find(hostId);
+
+            var stats = db.sqlMetrics().snapshot().stream()
+                    .filter(s -> s.statement().equals("HostDAO.find"))
+                    .findFirst().orElseThrow();
+            assertEquals(2, stats.count());
+            assertEquals(0, stats.errors());
+            assertTrue(stats.maxMicros() >= stats.p50Micros());
+            // every handle's copy of the config refers to the one pool-wide instance
+            assertSame(db.sqlMetrics(), db.sqlMetrics());
+        }
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        var histogram = new SqlMetrics.Histogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(i);
+        assertEquals(500, histogram.percentile(0.5), 500 / 8.0);
+        assertEquals(990, histogram.percentile(0.99), 990 / 8.0);
+        assertEquals(1000, histogram.percentile(1.0));
+        for (long value : new long[]{0, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE / 2}) {
+            int bucket = SqlMetrics.Histogram.bucket(value);
+            assertTrue(value <= SqlMetrics.Histogram.highestValueInBucket(bucket), "value " + value);
+            if (bucket > 0) assertTrue(value > SqlMetrics.Histogram.highestValueInBucket(bucket - 1), "value " + value);
+        }
+    }
+}
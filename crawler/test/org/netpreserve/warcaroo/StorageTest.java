@@ -0,0 +1,174 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.jwarc.WarcReader;
+import org.netpreserve.jwarc.WarcRecord;
+import org.netpreserve.jwarc.WarcResponse;
+import org.netpreserve.jwarc.WarcRevisit;
+import org.netpreserve.warcaroo.cdp.ResourceFetched;
+import org.netpreserve.warcaroo.cdp.domains.Network;
+import org.netpreserve.warcaroo.config.StorageConfig;
+import org.netpreserve.warcaroo.util.BareMediaType;
+import org.netpreserve.warcaroo.util.Url;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageTest {
+    @Test
+    void testDuplicatePayloadWrittenAsRevisit(@TempDir Path tempDir) throws Exception {
+        byte[] body = new byte[4096];
+        Arrays.fill(body, (byte) 'x');
+        byte[] smallBody = "small".getBytes(US_ASCII);
+        try (var db = Database.newDatabaseInMemory();
+             var writer = new DatabaseWriter(db);
+             var statistics = new Statistics(db, writer)) {
+            var storage = new Storage(tempDir, db, writer, null, statistics, new HostIdCache(10));
+            var url = new Url("http://example.com/");
+            long pageId = db.pages().insert(url, db.hosts().insertOrGetId(url.rhost()),
+                    db.domains().insertOrGetId(url.rdomain()), Instant.now());
+
+            var original = storage.save(pageId, fetch("http://example.com/a", body), Map.of());
+            var revisit = storage.save(pageId, fetch("http://example.com/b", body), Map.of());
+            var sameUrl = storage.save(pageId, fetch("http://example.com/a", body), Map.of());
+            storage.save(pageId, fetch("http://example.com/c", smallBody), Map.of());
+            var small = storage.save(pageId, fetch("http://example.com/d", smallBody), Map.of());
+            storage.close();
+
+            assertFalse(original.isRevisit());
+            assertEquals(original.id(), revisit.revisitOf());
+            assertEquals(original.id(), sameUrl.revisitOf());
+            assertFalse(small.isRevisit());
+            assertEquals(new Storage.DedupStats(2, 0, body.length * 2L), storage.dedupStats());
+
+            List<WarcRevisit> revisits = new ArrayList<>();
+            try (var files = Files.list(tempDir.resolve("warcs"))) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".warc.gz")).toList()) {
+                    try (var reader = new WarcReader(file)) {
+                        for (WarcRecord record : reader) {
+                            if (record instanceof WarcRevisit warcRevisit) revisits.add(warcRevisit);
+                        }
+                    }
+                }
+            }
+            assertEquals(2, revisits.size());
+            assertEquals(List.of("http://example.com/b", "http://example.com/a"),
+                    revisits.stream().map(WarcRevisit::target).toList());
+            for (var warcRevisit : revisits) {
+                assertEquals("http://example.com/a", warcRevisit.refersToTargetURI().orElseThrow().toString());
+                assertEquals(URI.create("urn:uuid:" + original.responseUuid()), warcRevisit.refersTo().orElseThrow());
+            }
+
+            writer.run(database -> {}); // wait for the queued inserts
+            var replayed = Replay.replay(db, tempDir, new Url("http://example.com/b"));
+            assertEquals(200, replayed.status());
+            assertArrayEquals(body, replayed.body());
+            assertEquals(404, Replay.replay(db, tempDir, new Url("http://example.com/missing")).status());
+        }
+    }
+
+    @Test
+    void testPayloadFromPriorCrawlWrittenAsRevisit(@TempDir Path tempDir) throws Exception {
+        byte[] body = new byte[4096];
+        Arrays.fill(body, (byte) 'x');
+        byte[] changedBody = Arrays.copyOf(body, body.length);
+        changedBody[0] = 'y';
+
+        Path previousJob = tempDir.resolve("previous");
+        try (var db = Database.open(Files.createDirectories(previousJob).resolve("db.sqlite3"));
+             var writer = new DatabaseWriter(db);
+             var statistics = new Statistics(db, writer)) {
+            var storage = new Storage(previousJob, db, writer, null, statistics, new HostIdCache(10));
+            long pageId = createPage(db);
+            storage.save(pageId, fetch("http://example.com/same", body), Map.of());
+            storage.save(pageId, fetch("http://example.com/changed", body), Map.of());
+            storage.close();
+        }
+
+        Path job = tempDir.resolve("job");
+        var config = new StorageConfig(null, null, null, null, null, null, null,
+                List.of(previousJob.resolve("db.sqlite3").toString()), null, null, null);
+        try (var db = Database.newDatabaseInMemory();
+             var writer = new DatabaseWriter(db);
+             var statistics = new Statistics(db, writer)) {
+            var storage = new Storage(job, db, writer, config, statistics, new HostIdCache(10));
+            long pageId = createPage(db);
+            var same = storage.save(pageId, fetch("http://example.com/same", body), Map.of());
+            var changed = storage.save(pageId, fetch("http://example.com/changed", changedBody), Map.of());
+            var moved = storage.save(pageId, fetch("http://example.com/moved", changedBody), Map.of());
+            storage.close();
+
+            assertTrue(same.isRevisit());
+            assertNull(same.revisitOf());
+            assertNotNull(same.refersToDate());
+            assertFalse(changed.isRevisit());
+            assertEquals(changed.id(), moved.revisitOf());
+            assertEquals(new Storage.DedupStats(2, 1, body.length * 2L), storage.dedupStats());
+
+            writer.run(database -> {});
+            assertEquals(501, Replay.replay(db, job, new Url("http://example.com/same")).status());
+            var replayed = Replay.replay(db, job, new Url("http://example.com/moved"));
+            assertEquals(200, replayed.status());
+            assertArrayEquals(changedBody, replayed.body());
+        }
+        assertTrue(Files.exists(job.resolve("prior-captures.idx")));
+    }
+
+    @Test
+    void testWarcsStripedAcrossDirectories(@TempDir Path tempDir) throws Exception {
+        Path job = tempDir.resolve("job");
+        Path otherDisk = tempDir.resolve("disk2");
+        var config = new StorageConfig(null, null, null, null, null, null, null, null,
+                List.of("warcs", otherDisk.toString()), 1L, null);
+        var resources = new ArrayList<Resource>();
+        try (var db = Database.newDatabaseInMemory();
+             var writer = new DatabaseWriter(db);
+             var statistics = new Statistics(db, writer)) {
+            var storage = new Storage(job, db, writer, config, statistics, new HostIdCache(10));
+            long pageId = createPage(db);
+            for (int i = 0; i < 6; i++) {
+                resources.add(storage.save(pageId, fetch("http://example.com/" + i,
+                        ("body" + i).getBytes(US_ASCII)), Map.of()));
+            }
+            storage.close();
+        }
+
+        // every record was followed by a rotation so each is in its own file
+        assertEquals(6, resources.stream().map(Resource::filename).distinct().count());
+        long onOtherDisk = 0;
+        for (var resource : resources) {
+            Path file = job.resolve(resource.filename());
+            assertTrue(Files.exists(file), file.toString());
+            if (file.startsWith(otherDisk)) onOtherDisk++;
+            try (var reader = new WarcReader(file)) {
+                reader.position(resource.responseOffset());
+                assertEquals(resource.url().toString(),
+                        ((WarcResponse) reader.next().orElseThrow()).target());
+            }
+        }
+        assertTrue(onOtherDisk > 0 && onOtherDisk < 6, "expected both directories to be used");
+    }
+
+    private static long createPage(Database db) {
+        var url = new Url("http://example.com/");
+        return db.pages().insert(url, db.hosts().insertOrGetId(url.rhost()),
+                db.domains().insertOrGetId(url.rdomain()), Instant.now());
+    }
+
+    private static ResourceFetched fetch(String url, byte[] body) {
+        return new ResourceFetched("GET", new Url(url), "GET / HTTP/1.1\r\n\r\n".getBytes(US_ASCII), null,
+                "HTTP/1.1 200 OK\r\n\r\n".getBytes(US_ASCII), body, null, null, 0, 200, null,
+                new BareMediaType("text/plain"), new Network.ResourceType("Other"), null, 0, null, null, null,
+                Instant.now(), -1, null);
+    }
+}
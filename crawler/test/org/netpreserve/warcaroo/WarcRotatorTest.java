@@ -0,0 +1,121 @@
+package org.netpreserve.warcaroo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.jwarc.MediaType;
+import org.netpreserve.jwarc.WarcResource;
+import org.netpreserve.warcaroo.config.Compression;
+import org.netpreserve.warcaroo.util.Url;
+import org.netpreserve.warcaroo.util.ZstdWarc;
+
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarcRotatorTest {
+
+    @Test
+    public void zstdWithTrainedDictionary(@TempDir Path tempDir) throws Exception {
+        var dictionary = new ZstdDictionary(tempDir.resolve("test.zstdict"), 256 * 1024);
+        var offsets = new ArrayList<Long>();
+        var filenames = new ArrayList<String>();
+        try (var rotator = new WarcRotator(tempDir, "test", Compression.ZSTD, dictionary, false, null)) {
+            for (int i = 0; i < 1000; i++) {
+                // enough samples have been collected by now, let the background training finish
+                if (i == 500) dictionary.awaitTraining(Duration.ofMinutes(1));
+                var writer = rotator.get();
+                offsets.add(writer.position());
+                writer.write(record(i));
+                filenames.add(rotator.filename());
+                // as Storage does, a new file is started once the dictionary is trained
+                if (rotator.shouldRotate(Long.MAX_VALUE, null)) rotator.rotate(Runnable::run).join();
+            }
+        }
+        assertNotNull(dictionary.trained(), "dictionary should have been trained");
+        assertTrue(filenames.get(0).endsWith(".warc.zst"));
+        String lastFile = filenames.get(filenames.size() - 1);
+        assertNotEquals(filenames.get(0), lastFile, "should rotate once the dictionary is trained");
+
+        try (var channel = FileChannel.open(tempDir.resolve(lastFile))) {
+            assertArrayEquals(dictionary.trained().bytes(), ZstdWarc.readDictionary(channel));
+        }
+        try (var channel = FileChannel.open(tempDir.resolve(filenames.get(0)))) {
+            assertNull(ZstdWarc.readDictionary(channel));
+        }
+
+        for (int i : List.of(0, 1, 500, 999)) {
+            try (var reader = Replay.openWarc(tempDir.resolve(filenames.get(i)), offsets.get(i))) {
+                var record = (WarcResource) reader.next().orElseThrow();
+                assertEquals("http://example.com/" + i, record.target());
+                assertEquals(body(i), new String(record.body().stream().readAllBytes(), UTF_8));
+            }
+        }
+
+        // walking the frame headers should find the same offsets the writer reported
+        var expected = new ArrayList<Long>();
+        for (int i = 0; i < filenames.size(); i++) {
+            if (filenames.get(i).equals(lastFile)) expected.add(offsets.get(i));
+        }
+        try (var channel = FileChannel.open(tempDir.resolve(lastFile))) {
+            long position = ZstdWarc.nextFrame(channel, ZstdWarc.firstRecord(channel)); // skip warcinfo
+            for (long offset : expected) {
+                assertEquals(offset, position);
+                position = ZstdWarc.nextFrame(channel, position);
+            }
+            assertEquals(channel.size(), position);
+        }
+    }
+
+    @Test
+    public void cdxjIndexIsWrittenSortedOnClose(@TempDir Path tempDir) throws Exception {
+        var cumulative = tempDir.resolve("index.cdxj");
+        var warcFiles = new ArrayList<String>();
+        for (var urls : List.of(List.of(2, 0), List.of(1))) {
+            try (var rotator = new WarcRotator(tempDir, "test", Compression.GZIP, null, true, cumulative)) {
+                for (int i : urls) {
+                    var writer = rotator.get();
+                    long offset = writer.position();
+                    writer.write(record(i));
+                    rotator.index(new Url("http://www.example.com/" + i), Instant.parse("2024-01-02T03:04:05Z"),
+                            "text/html", 200, null, offset, writer.position() - offset);
+                }
+                warcFiles.add(rotator.filename());
+            }
+        }
+
+        String firstWarc = warcFiles.get(0);
+        var sidecar = Files.readAllLines(tempDir.resolve(firstWarc.replace(".warc.gz", ".cdxj")));
+        assertEquals(2, sidecar.size());
+        assertTrue(sidecar.get(0).startsWith("com,example)/0 20240102030405 {\"url\":\"http://www.example.com/0\""),
+                sidecar.get(0));
+        assertTrue(sidecar.get(1).startsWith("com,example)/2 "));
+        assertTrue(sidecar.get(1).contains("\"filename\":\"" + firstWarc + "\""));
+
+        var merged = Files.readAllLines(cumulative);
+        assertEquals(3, merged.size());
+        assertTrue(merged.get(1).startsWith("com,example)/1 "));
+        assertTrue(merged.get(1).contains(warcFiles.get(1)));
+    }
+
+    private static WarcResource record(int i) {
+        return new WarcResource.Builder(URI.create("http://example.com/" + i))
+                .body(MediaType.HTML, body(i).getBytes(UTF_8))
+                .build();
+    }
+
+    private static String body(int i) {
+        return "<!doctype html><html><head><title>Page " + i + "</title>" +
+               "<link rel=stylesheet href=/style.css><script src=/app.js></script></head>" +
+               "<body><nav><a href=/>Home</a> <a href=/about>About</a> <a href=/contact>Contact</a></nav>" +
+               "<main><h1>Page number " + i + "</h1><p>" + "Lorem ipsum dolor sit amet. ".repeat(i % 20) +
+               "</p></main><footer>Copyright Example Inc.</footer></body></html>";
+    }
+}
@@ -0,0 +1,50 @@
+package org.netpreserve.warcaroo.webapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountCacheTest {
+    @Test
+    void testCachesExactCounts() {
+        var cache = new CountCache();
+        var calls = new AtomicInteger();
+        var query = new Webapp.HostsQuery();
+        query.rhost = "com,example,";
+
+        assertEquals(new CountCache.Count(42, false), cache.count("hosts", query, null,
+                () -> 42 + calls.getAndIncrement(), max -> fail()));
+        query.page = 3;
+        query.sort = "-pending";
+        assertEquals(new CountCache.Count(42, false), cache.count("hosts", query, null,
+                () -> 42 + calls.getAndIncrement(), max -> fail()));
+        assertEquals(1, calls.get());
+
+        query.rhost = "org,example,";
+        assertEquals(new CountCache.Count(43, false), cache.count("hosts", query, null,
+                () -> 42 + calls.getAndIncrement(), max -> fail()));
+    }
+
+    @Test
+    void testCounter() {
+        var query = new Webapp.HostsQuery();
+        assertTrue(query.isUnfiltered());
+        assertEquals(new CountCache.Count(7, false), new CountCache().count("hosts", query, () -> 7,
+                () -> fail(), max -> fail()));
+    }
+
+    @Test
+    void testApproximate() {
+        var cache = new CountCache();
+        var query = new Webapp.HostsQuery();
+        query.rhost = "com,example,";
+        query.approximate = true;
+
+        assertEquals(new CountCache.Count(CountCache.MIN_APPROXIMATE_ROWS, true),
+                cache.count("hosts", query, null, () -> fail(), max -> max));
+        // a bounded count below the limit is exact
+        assertEquals(new CountCache.Count(5, false), cache.count("hosts", query, null, () -> fail(), max -> 5));
+    }
+}
@@ -4,8 +4,10 @@ import org.netpreserve.jwarc.WarcReader;
 import org.netpreserve.jwarc.WarcRecord;
 import org.netpreserve.jwarc.WarcRequest;
 import org.netpreserve.jwarc.WarcResponse;
+import org.netpreserve.warcaroo.util.ZstdWarc;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -16,23 +18,63 @@ import java.util.TreeSet;
 class Index {
     private final NavigableSet<Entry> entries = new TreeSet<>();
 
+    /**
+     * Opens a WARC file for reading from the record at the given position.
+     */
+    static WarcReader openWarc(Path file, long position) throws IOException {
+        if (ZstdWarc.isZstd(file)) {
+            return new WarcReader(ZstdWarc.open(file, position));
+        }
+        var reader = new WarcReader(file);
+        reader.position(position);
+        return reader;
+    }
+
     public void addWarc(Path file) throws IOException {
+        if (ZstdWarc.isZstd(file)) {
+            addZstdWarc(file);
+            return;
+        }
         try (WarcReader reader = new WarcReader(file)) {
             WarcResponse response = null;
             for (WarcRecord record : reader) {
-                if (record instanceof WarcResponse) {
-                    if (response != null) {
-                        entries.add(new Entry(response, null, file, reader.position()));
-                    }
-                    response = (WarcResponse) record;
-                } else if (record instanceof WarcRequest request
-                           && response != null
-                           && request.concurrentTo().contains(response.id())) {
-                    entries.add(new Entry(response, request, file, reader.position()));
-                    response = null;
-                }
+                response = add(response, record, file, reader.position());
+            }
+        }
+    }
+
+    /**
+     * Zstd WARCs are read as a single decompressed stream so the record positions are found by walking the frame
+     * headers alongside it.
+     */
+    private void addZstdWarc(Path file) throws IOException {
+        try (var frames = FileChannel.open(file);
+             var reader = new WarcReader(ZstdWarc.open(file, 0))) {
+            long position = ZstdWarc.firstRecord(frames);
+            WarcResponse response = null;
+            for (WarcRecord record : reader) {
+                response = add(response, record, file, position);
+                position = ZstdWarc.nextFrame(frames, position);
+            }
+        }
+    }
+
+    /**
+     * Adds an entry for a response once its request has been seen. Returns the response still waiting for a request.
+     */
+    private WarcResponse add(WarcResponse response, WarcRecord record, Path file, long position) throws IOException {
+        if (record instanceof WarcResponse) {
+            if (response != null) {
+                entries.add(new Entry(response, null, file, position));
             }
+            return (WarcResponse) record;
+        } else if (record instanceof WarcRequest request
+                   && response != null
+                   && request.concurrentTo().contains(response.id())) {
+            entries.add(new Entry(response, request, file, position));
+            return null;
         }
+        return response;
     }
 
     public Entry findClosest(String method, String url, Instant date) {
@@ -30,8 +30,7 @@ public class Renderer {
         log.info("Index entry: {}", entry);
 
         if (entry != null) {
-            try (var reader1 = new WarcReader(entry.file())) {
-                reader1.position(entry.position());
+            try (var reader1 = Index.openWarc(entry.file(), entry.position())) {
                 var record1 = reader1.next().orElseThrow();
                 var response1 = (WarcResponse) record1;
                 return new RequestHandler.Response(response1.http().status(),
@@ -47,7 +46,7 @@ public class Renderer {
     private void renderWarc(Path file) throws IOException {
         index.addWarc(file);
 
-        try (var reader = new WarcReader(file);
+        try (var reader = Index.openWarc(file, 0);
              var browser = BrowserProcess.start()) {
             for (var record : reader) {
                 if (record instanceof WarcResponse response) {